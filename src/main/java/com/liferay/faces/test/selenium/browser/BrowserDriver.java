@@ -15,10 +15,19 @@
  */
 package com.liferay.faces.test.selenium.browser;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.openqa.selenium.Cookie;
+import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.interactions.Action;
@@ -34,6 +43,10 @@ public interface BrowserDriver {
 
 	public void acceptAlert();
 
+	public default void addBrowserCookie(Cookie cookie) {
+		getWebDriver().manage().addCookie(cookie);
+	}
+
 	/**
 	 * Calls {@link #captureCurrentBrowserState(java.lang.String, java.lang.String)}. The default output directory is
 	 * <code>System.getProperty("java.io.tmpdir") + "captured-browser-state"</code>. This can be changed with the <code>
@@ -44,9 +57,9 @@ public interface BrowserDriver {
 	public void captureCurrentBrowserState();
 
 	/**
-	 * Captures the current page markup (using {@link #getCurrentDocumentMarkup()}) to a file, and if the browser
-	 * supports it, captures a screenshot to a file as well. This method logs the file locations for the benefit of the
-	 * tester.
+	 * Captures the current page markup (using {@link #writeCurrentDocumentMarkup(java.io.OutputStream)} or {@link
+	 * #getCurrentDocumentMarkup()}) to a file, and if the browser supports it, captures a screenshot to a file as well.
+	 * This method logs the file locations for the benefit of the tester.
 	 *
 	 * @param  outputDirectoryPath  Path where the captured page state should be generated.
 	 * @param  fileNamePrefix       String to prepend to each html (and potentially screenshot) file name.
@@ -95,10 +108,46 @@ public interface BrowserDriver {
 
 	public Object executeScriptInCurrentWindow(String script, Object... args);
 
+	/**
+	 * Exports the cookies, local storage, and session storage of the current page's origin to a file so that they can
+	 * be restored later via {@link #importStorageState(java.lang.String)} (potentially by another JVM). The file is
+	 * written atomically, so it is safe to export to a directory which is shared by concurrent test runs. The default
+	 * implementation throws an {@link UnsupportedOperationException}.
+	 *
+	 * @param  filePath  The path of the storage state file.
+	 */
+	public default void exportStorageState(String filePath) throws IOException {
+		throw new UnsupportedOperationException("exportStorageState() is not supported by " + getClass().getName());
+	}
+
 	public WebElement findElementByXpath(String elementXpath);
 
 	public List<WebElement> findElementsByXpath(String elementXpath);
 
+	/**
+	 * Finds the elements matching each of the xpaths in as few browser commands as possible (a single command when the
+	 * browser supports JavaScript). The default implementation calls {@link #findElementsByXpath(java.lang.String)}
+	 * for each xpath.
+	 *
+	 * @param   elementXpaths  The xpaths of the elements to find.
+	 *
+	 * @return  The elements matching each xpath (in document order), keyed by xpath in the iteration order of
+	 *          elementXpaths. Xpaths which match no elements are mapped to an empty list.
+	 */
+	public default Map<String, List<WebElement>> findElementsByXpaths(Collection<String> elementXpaths) {
+
+		Map<String, List<WebElement>> elementsByXpath = new LinkedHashMap<String, List<WebElement>>();
+
+		for (String elementXpath : elementXpaths) {
+
+			if (!elementsByXpath.containsKey(elementXpath)) {
+				elementsByXpath.put(elementXpath, findElementsByXpath(elementXpath));
+			}
+		}
+
+		return elementsByXpath;
+	}
+
 	public Set<Cookie> getBrowserCookies();
 
 	public String getBrowserName();
@@ -116,6 +165,17 @@ public interface BrowserDriver {
 
 	public Set<String> getWindowIds();
 
+	/**
+	 * Imports the cookies, local storage, and session storage exported by {@link
+	 * #exportStorageState(java.lang.String)}. The current window is navigated to the origin of the storage state in
+	 * order to restore it. The default implementation throws an {@link UnsupportedOperationException}.
+	 *
+	 * @param  filePath  The path of the storage state file.
+	 */
+	public default void importStorageState(String filePath) throws IOException {
+		throw new UnsupportedOperationException("importStorageState() is not supported by " + getClass().getName());
+	}
+
 	public boolean isBrowserHeadless();
 
 	public boolean isBrowserSimulatingMobile();
@@ -129,7 +189,10 @@ public interface BrowserDriver {
 
 	/**
 	 * Performs an {@link Action} and waits for an element to be rerendered (for example via Ajax or a full page
-	 * reload).
+	 * reload). By default, the element is considered rerendered once it is stale. When the <code>
+	 * "integration.browser.driver.rerender.mode"</code> system property is set to <code>ajax</code>, the element is
+	 * considered rerendered once all JSF (or Liferay) Ajax requests started by the action have completed, so that
+	 * partial updates which do not replace the element are also detected.
 	 *
 	 * @param  action         The action which will cause the rerender.
 	 * @param  rerenderXpath  The xpath of the element which will be rerendered.
@@ -141,6 +204,32 @@ public interface BrowserDriver {
 	 */
 	public void quit();
 
+	/**
+	 * Resets the current window to a clean state without quitting the browser. The cookies, local storage, and session
+	 * storage of the current page's origin are cleared, and the window is navigated to <code>about:blank</code>. This
+	 * is much faster than quitting the browser and starting a new one. Other windows are not closed (see {@link
+	 * BrowserDriverPool#returnBrowserDriver(BrowserDriver, boolean)}, which closes all windows except the browser's
+	 * initial window before resetting it).
+	 *
+	 * @throws  org.openqa.selenium.WebDriverException  If the browser could not be reset. In that case, the browser
+	 *                                                  should be quit via {@link #quit()}.
+	 */
+	public default void reset() {
+
+		WebDriver webDriver = getWebDriver();
+		webDriver.switchTo().defaultContent();
+		webDriver.manage().deleteAllCookies();
+
+		if (webDriver instanceof JavascriptExecutor) {
+
+			// Pages such as about:blank throw a SecurityError when their storage is accessed.
+			((JavascriptExecutor) webDriver).executeScript(
+				"try { window.localStorage.clear(); window.sessionStorage.clear(); } catch (e) { /* do nothing */ }");
+		}
+
+		webDriver.get("about:blank");
+	}
+
 	public void sendKeysToElement(String elementXpath, CharSequence... keys);
 
 	public void setPageLoadTimeout(int waitTimeOutInSeconds);
@@ -204,4 +293,19 @@ public interface BrowserDriver {
 	 * @param  elementMustBeDisplayed  If true, also wait for the element to be displayed.
 	 */
 	public void waitForTextPresentInElement(String text, String elementXpath, boolean elementMustBeDisplayed);
+
+	/**
+	 * Writes the current HTML of the entire page (the same HTML that {@link #getCurrentDocumentMarkup()} returns)
+	 * encoded as UTF-8 to the output stream. Implementations may transfer the HTML from the browser in chunks so that
+	 * the HTML of very large pages is never held in memory in its entirety. The default implementation writes the
+	 * result of {@link #getCurrentDocumentMarkup()}. The output stream is flushed but not closed.
+	 *
+	 * @param  outputStream  The output stream.
+	 */
+	public default void writeCurrentDocumentMarkup(OutputStream outputStream) throws IOException {
+
+		Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+		writer.write(getCurrentDocumentMarkup());
+		writer.flush();
+	}
 }
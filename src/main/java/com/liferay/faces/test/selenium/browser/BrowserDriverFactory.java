@@ -91,6 +91,16 @@ public abstract class BrowserDriverFactory {
 		return browserDriverFactory.getBrowserDriverImplementation(webDriver, browserHeadless, browserSimulateMobile);
 	}
 
+	/**
+	 * Releases the resources which are shared by all {@link BrowserDriver}s (for example by finishing writing captured
+	 * browser state). This method is called once all BrowserDrivers have been quit at the end of the test run.
+	 *
+	 * @see  #shutDownImplementation()
+	 */
+	public static final void shutDown() {
+		browserDriverFactory.shutDownImplementation();
+	}
+
 	/**
 	 * Returns a new instance of {@link BrowserDriver} with the default {@link WebDriver} settings. The BrowserDriver
 	 * must be closed (via {@link BrowserDriver#quit()} or {@link BrowserDriver#closeCurrentWindow()}) by the caller.
@@ -121,4 +131,11 @@ public abstract class BrowserDriverFactory {
 	 */
 	public abstract BrowserDriver getBrowserDriverImplementation(WebDriver webDriver, boolean browserHeadless,
 		boolean browserSimulateMobile);
+
+	/**
+	 * Releases the resources which are shared by all {@link BrowserDriver}s. The default implementation does nothing.
+	 */
+	public void shutDownImplementation() {
+		// Do nothing.
+	}
 }
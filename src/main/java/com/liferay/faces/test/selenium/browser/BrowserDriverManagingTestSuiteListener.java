@@ -22,6 +22,7 @@ import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 
+import org.junit.runner.Description;
 import org.junit.runner.Result;
 import org.junit.runner.notification.RunListener;
 
@@ -39,9 +40,17 @@ public final class BrowserDriverManagingTestSuiteListener extends RunListener {
 
 		Files.walkFileTree(FileUploadTesterBase.OnDemandTemporaryFolder.INSTANCE.toPath(), new DeleteFileVisitor());
 		BrowserDriverManagingTesterBase.doTearDown();
+		BrowserDriverFactory.shutDown();
 		super.testRunFinished(result);
 	}
 
+	@Override
+	public void testRunStarted(Description description) throws Exception {
+
+		super.testRunStarted(description);
+		BrowserDriverManagingTesterBase.doWarmUp();
+	}
+
 	private static final class DeleteFileVisitor extends SimpleFileVisitor<Path> {
 
 		// Logger
@@ -15,8 +15,16 @@
  */
 package com.liferay.faces.test.selenium.browser;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
 import org.junit.AfterClass;
 import org.junit.Before;
+import org.junit.Rule;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
@@ -24,73 +32,167 @@ import org.junit.Before;
  */
 public abstract class BrowserDriverManagingTesterBase {
 
+	// Logger
+	private static final Logger logger = LoggerFactory.getLogger(BrowserDriverManagingTesterBase.class);
+
 	// Private Constants
 	private static final boolean RUNNING_WITH_MAVEN = Boolean.valueOf(TestUtil.getSystemPropertyOrDefault(
 				"RUNNING_WITH_MAVEN", "false"));
+	private static final boolean SOFT_RESET = Boolean.valueOf(TestUtil.getSystemPropertyOrDefault(
+				"integration.browser.driver.soft.reset", "true"));
 
 	// Private Static Data Members (Singletons)
-	private static boolean isSetUp = false;
-	private static BrowserDriver browserDriver;
-	private static WaitingAsserter waitingAsserter;
+	private static final BrowserDriverPool browserDriverPool = new BrowserDriverPool();
+	private static final ThreadLocal<BrowserDriver> browserDriver = new ThreadLocal<BrowserDriver>();
+	private static final Set<BrowserDriver> setUpBrowserDrivers = Collections.synchronizedSet(Collections
+			.newSetFromMap(new WeakHashMap<BrowserDriver, Boolean>()));
+	private static final ThreadLocal<WaitingAsserter> waitingAsserter = new ThreadLocal<WaitingAsserter>();
+
+	// Public Final Data Members
+	/**
+	 * Writes the most recent browser states to disk when a test fails (see {@link BrowserStateHistory}).
+	 */
+	@Rule
+	public final BrowserStateHistory browserStateHistory = new BrowserStateHistory();
+
+	/**
+	 * Limits the time each test may spend waiting (see {@link TestTimeBudget}).
+	 */
+	@Rule
+	public final TestTimeBudget testTimeBudget = new TestTimeBudget();
+
+	static {
+
+		// When the tests are not run with maven, BrowserDriverManagingTestSuiteListener#testRunFinished() is not
+		// called, so soft reset browsers must be quit when the JVM exits.
+		if (!RUNNING_WITH_MAVEN && SOFT_RESET) {
+			Runtime.getRuntime().addShutdownHook(new Thread(browserDriverPool::clear));
+		}
+	}
 
 	/**
 	 * {@link BrowserDriverManagingTestSuiteListener#testRunFinished(org.junit.runner.Result)} is used to shut down the
 	 * browser/webDriver when the tests are run with the maven. However, {@link
 	 * BrowserDriverManagingTestSuiteListener#testRunFinished(org.junit.runner.Result)} is not called when the tests are
-	 * not run with the maven (i.e. when the tests are run from an IDE). So when the tests are run from an IDE, it is
-	 * necessary to shutdown the browser after each test class is run.
+	 * not run with the maven (i.e. when the tests are run from an IDE). So when the tests are run from an IDE, the
+	 * browser is soft reset (see {@link BrowserDriver#reset()}) after each test class is run and quit when the JVM
+	 * exits. If the soft reset fails or the <code>"integration.browser.driver.soft.reset"</code> system property is
+	 * <code>false</code>, the browser is shut down after each test class instead. When the tests are run with maven,
+	 * the browser is returned to the pool so that it can be reused by the next test class (which may run on another
+	 * thread).
 	 */
 	@AfterClass
 	public static void tearDown() {
 
-		if (!RUNNING_WITH_MAVEN) {
+		if (RUNNING_WITH_MAVEN) {
+			returnBrowserDriver();
+		}
+		else if (SOFT_RESET) {
+			softResetBrowserDriver();
+		}
+		else {
 			doTearDown();
 		}
 	}
 
 	protected static void doTearDown() {
 
-		waitingAsserter = null;
+		waitingAsserter.remove();
+
+		BrowserDriver currentBrowserDriver = browserDriver.get();
 
-		if (browserDriver != null) {
+		if (currentBrowserDriver != null) {
 
-			browserDriver.quit();
-			browserDriver = null;
+			browserDriver.remove();
+			setUpBrowserDrivers.remove(currentBrowserDriver);
+			browserDriverPool.invalidateBrowserDriver(currentBrowserDriver);
 		}
 
-		isSetUp = false;
+		browserDriverPool.clear();
+		logger.info("{}", browserDriverPool);
+	}
+
+	/**
+	 * Starts {@link TestUtil#getBrowserDriverWarmUpCount()} BrowserDrivers in the background so that the first tests
+	 * do not need to wait for the browser to start. This method is called by {@link
+	 * BrowserDriverManagingTestSuiteListener#testRunStarted(org.junit.runner.Description)}.
+	 */
+	/* package-private */ static void doWarmUp() {
+
+		int browserDriverWarmUpCount = TestUtil.getBrowserDriverWarmUpCount();
+
+		if (browserDriverWarmUpCount > 0) {
+			browserDriverPool.warmUp(browserDriverWarmUpCount);
+		}
+	}
+
+	private static void returnBrowserDriver() {
+
+		waitingAsserter.remove();
+
+		BrowserDriver currentBrowserDriver = browserDriver.get();
+
+		if (currentBrowserDriver != null) {
+
+			browserDriver.remove();
+			browserDriverPool.returnBrowserDriver(currentBrowserDriver);
+		}
+	}
+
+	private static void softResetBrowserDriver() {
+
+		waitingAsserter.remove();
+
+		BrowserDriver currentBrowserDriver = browserDriver.get();
+
+		if (currentBrowserDriver != null) {
+
+			browserDriver.remove();
+
+			// The browser is signed out by the reset, so doSetUp() must be run again before it is reused.
+			setUpBrowserDrivers.remove(currentBrowserDriver);
+			browserDriverPool.returnBrowserDriver(currentBrowserDriver, true);
+		}
 	}
 
 	@Before
 	public final void setUp() {
 
-		if (!isSetUp) {
+		BrowserDriver currentBrowserDriver = getBrowserDriver();
+
+		if (!setUpBrowserDrivers.contains(currentBrowserDriver)) {
 
 			doSetUp();
-			isSetUp = true;
+			setUpBrowserDrivers.add(currentBrowserDriver);
 		}
 	}
 
 	/**
-	 * This method is run once before any tests in order to prepare for testing. The default behavior of this method is
-	 * to initialize the default {@link BrowserDriver} and sign in to the container where applicable.
+	 * This method is run once for each {@link BrowserDriver} before any tests in order to prepare for testing. The
+	 * default behavior of this method is to initialize the default {@link BrowserDriver} and sign in to the container
+	 * where applicable.
 	 */
 	protected void doSetUp() {
 		TestUtil.signIn(getBrowserDriver());
 	}
 
 	/**
-	 * Returns an instance of {@link BrowserDriver}. The instance will be closed automatically. The instance may be a
-	 * singleton, new instance, or from a pool of BrowserDrivers. To obtain a new instance of BrowserDriver, use {@link
+	 * Returns an instance of {@link BrowserDriver}. The instance will be closed automatically. The instance is
+	 * borrowed from a {@link BrowserDriverPool} (sized by {@link TestUtil#getBrowserDriverPoolSize()}) and is confined
+	 * to the current thread until the end of the test class. To obtain a new instance of BrowserDriver, use {@link
 	 * BrowserDriverFactory#getBrowserDriver()}.
 	 */
 	protected final BrowserDriver getBrowserDriver() {
 
-		if (browserDriver == null) {
-			browserDriver = BrowserDriverFactory.getBrowserDriver();
+		BrowserDriver currentBrowserDriver = browserDriver.get();
+
+		if (currentBrowserDriver == null) {
+
+			currentBrowserDriver = browserDriverPool.borrowBrowserDriver();
+			browserDriver.set(currentBrowserDriver);
 		}
 
-		return browserDriver;
+		return currentBrowserDriver;
 	}
 
 	/**
@@ -101,10 +203,14 @@ public abstract class BrowserDriverManagingTesterBase {
 	 */
 	protected final WaitingAsserter getWaitingAsserter() {
 
-		if (waitingAsserter == null) {
-			waitingAsserter = WaitingAsserterFactory.getWaitingAsserter(getBrowserDriver());
+		WaitingAsserter currentWaitingAsserter = waitingAsserter.get();
+
+		if (currentWaitingAsserter == null) {
+
+			currentWaitingAsserter = WaitingAsserterFactory.getWaitingAsserter(getBrowserDriver());
+			waitingAsserter.set(currentWaitingAsserter);
 		}
 
-		return waitingAsserter;
+		return currentWaitingAsserter;
 	}
 }
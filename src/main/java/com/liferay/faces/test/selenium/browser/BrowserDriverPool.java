@@ -0,0 +1,401 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A bounded pool of {@link BrowserDriver}s. At most {@link #getMaxSize()} BrowserDrivers are borrowed at any one time,
+ * so test classes running in parallel (for example with surefire's <code>parallel=classes</code> mode) each obtain
+ * their own browser while the total number of browsers stays fixed. A borrowed BrowserDriver must only be used by the
+ * borrowing thread and must be returned via {@link #returnBrowserDriver(BrowserDriver)} or {@link
+ * #invalidateBrowserDriver(BrowserDriver)}.
+ *
+ * @author  Kyle Stiemann
+ */
+public final class BrowserDriverPool {
+
+	// Logger
+	private static final Logger logger = LoggerFactory.getLogger(BrowserDriverPool.class);
+
+	// Private Final Data Members
+	private final AtomicLong borrowCount = new AtomicLong();
+	private final AtomicLong borrowWaitTimeNanos = new AtomicLong();
+	private final Supplier<BrowserDriver> browserDriverSupplier;
+	private final AtomicLong creationCount = new AtomicLong();
+	private final BlockingDeque<BrowserDriver> idleBrowserDrivers = new LinkedBlockingDeque<BrowserDriver>();
+	private final Map<BrowserDriver, String> initialWindowIds = new ConcurrentHashMap<BrowserDriver, String>();
+	private final AtomicLong maxBorrowWaitTimeNanos = new AtomicLong();
+	private final int maxSize;
+	private final Semaphore permits;
+	private final AtomicLong warmUpHiddenTimeNanos = new AtomicLong();
+	private final AtomicLong warmUpWaitTimeNanos = new AtomicLong();
+	private final ConcurrentLinkedDeque<WarmingUpBrowserDriver> warmingUpBrowserDrivers =
+		new ConcurrentLinkedDeque<WarmingUpBrowserDriver>();
+
+	/**
+	 * Creates a pool which will hold at most {@link TestUtil#getBrowserDriverPoolSize()} BrowserDrivers.
+	 */
+	public BrowserDriverPool() {
+		this(TestUtil.getBrowserDriverPoolSize());
+	}
+
+	/**
+	 * @param  maxSize  The maximum number of BrowserDrivers which may be borrowed at any one time.
+	 */
+	public BrowserDriverPool(int maxSize) {
+		this(maxSize, BrowserDriverFactory::getBrowserDriver);
+	}
+
+	/**
+	 * @param  maxSize                The maximum number of BrowserDrivers which may be borrowed at any one time.
+	 * @param  browserDriverSupplier  Creates the pool's BrowserDrivers.
+	 */
+	/* package-private */ BrowserDriverPool(int maxSize, Supplier<BrowserDriver> browserDriverSupplier) {
+
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("BrowserDriverPool maxSize must be 1 or greater: " + maxSize);
+		}
+
+		this.maxSize = maxSize;
+		this.permits = new Semaphore(maxSize, true);
+		this.browserDriverSupplier = browserDriverSupplier;
+	}
+
+	/**
+	 * Borrows a BrowserDriver from the pool, blocking until one is available. An idle BrowserDriver is reused if
+	 * possible, then a BrowserDriver started by {@link #warmUp(int)} (waiting for it to finish starting if necessary),
+	 * otherwise a new one is created (by default via {@link BrowserDriverFactory#getBrowserDriver()}).
+	 */
+	public BrowserDriver borrowBrowserDriver() {
+
+		long startTime = System.nanoTime();
+
+		try {
+			permits.acquire();
+		}
+		catch (InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting to borrow a BrowserDriver.", e);
+		}
+
+		long waitTimeNanos = System.nanoTime() - startTime;
+		borrowCount.incrementAndGet();
+		borrowWaitTimeNanos.addAndGet(waitTimeNanos);
+		maxBorrowWaitTimeNanos.accumulateAndGet(waitTimeNanos, Math::max);
+
+		BrowserDriver browserDriver = idleBrowserDrivers.pollFirst();
+
+		if (browserDriver == null) {
+			browserDriver = takeWarmedUpBrowserDriver(true);
+		}
+
+		if (browserDriver == null) {
+
+			try {
+				browserDriver = createBrowserDriver();
+			}
+			catch (RuntimeException e) {
+
+				permits.release();
+				throw e;
+			}
+		}
+
+		return browserDriver;
+	}
+
+	/**
+	 * Quits all idle BrowserDrivers (including BrowserDrivers started by {@link #warmUp(int)} which were never
+	 * borrowed). BrowserDrivers which are currently borrowed are unaffected and the pool remains usable.
+	 */
+	public void clear() {
+
+		BrowserDriver browserDriver;
+
+		while ((browserDriver = takeWarmedUpBrowserDriver(false)) != null) {
+			quit(browserDriver);
+		}
+
+		while ((browserDriver = idleBrowserDrivers.pollFirst()) != null) {
+			quit(browserDriver);
+		}
+	}
+
+	public long getActiveCount() {
+		return maxSize - permits.availablePermits();
+	}
+
+	public long getBorrowCount() {
+		return borrowCount.get();
+	}
+
+	public long getCreationCount() {
+		return creationCount.get();
+	}
+
+	public int getIdleCount() {
+		return idleBrowserDrivers.size();
+	}
+
+	public long getMaxBorrowWaitTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxBorrowWaitTimeNanos.get());
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getTotalBorrowWaitTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(borrowWaitTimeNanos.get());
+	}
+
+	/**
+	 * Returns the amount of browser startup time which was hidden from tests by {@link #warmUp(int)} (in other words,
+	 * the time spent starting warmed up BrowserDrivers while no test was waiting for them).
+	 */
+	public long getWarmUpHiddenTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(warmUpHiddenTimeNanos.get());
+	}
+
+	/**
+	 * Returns the amount of time tests spent waiting for BrowserDrivers started by {@link #warmUp(int)} to finish
+	 * starting.
+	 */
+	public long getWarmUpWaitTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(warmUpWaitTimeNanos.get());
+	}
+
+	/**
+	 * Quits a borrowed BrowserDriver instead of returning it to the pool. Use this method when the BrowserDriver is
+	 * known to be broken or should not be reused.
+	 */
+	public void invalidateBrowserDriver(BrowserDriver browserDriver) {
+
+		try {
+			quit(browserDriver);
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Returns a borrowed BrowserDriver to the pool without resetting its cookies and storage.
+	 *
+	 * @see  #returnBrowserDriver(BrowserDriver, boolean)
+	 */
+	public void returnBrowserDriver(BrowserDriver browserDriver) {
+		returnBrowserDriver(browserDriver, false);
+	}
+
+	/**
+	 * Returns a borrowed BrowserDriver to the pool. Before the BrowserDriver becomes available to other threads, all
+	 * windows except the initial window are closed, the initial window is focused, and the wait time out is reset to
+	 * {@link TestUtil#getBrowserDriverWaitTimeOut()}. If the BrowserDriver cannot be reset (for example because the
+	 * initial window has been closed), it is quit instead.
+	 *
+	 * @param  browserDriver  The borrowed BrowserDriver.
+	 * @param  reset          If true, the initial window is also reset via {@link BrowserDriver#reset()}, which clears
+	 *                        its cookies and storage (and therefore signs the browser out).
+	 */
+	public void returnBrowserDriver(BrowserDriver browserDriver, boolean reset) {
+
+		try {
+
+			reset(browserDriver, reset);
+			idleBrowserDrivers.offerFirst(browserDriver);
+		}
+		catch (RuntimeException e) {
+
+			logger.warn("Unable to reset BrowserDriver, quitting it instead: {}", e.getMessage());
+			quit(browserDriver);
+		}
+		finally {
+			permits.release();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "BrowserDriverPool{maxSize=" + maxSize + ", active=" + getActiveCount() + ", idle=" + getIdleCount() +
+			", creations=" + getCreationCount() + ", borrows=" + getBorrowCount() + ", totalBorrowWaitTimeMillis=" +
+			getTotalBorrowWaitTimeMillis() + ", maxBorrowWaitTimeMillis=" + getMaxBorrowWaitTimeMillis() +
+			", warmUpHiddenTimeMillis=" + getWarmUpHiddenTimeMillis() + ", warmUpWaitTimeMillis=" +
+			getWarmUpWaitTimeMillis() + "}";
+	}
+
+	/**
+	 * Starts BrowserDrivers on background threads so that they are already started when they are borrowed. The number
+	 * of BrowserDrivers started is limited so that the pool never holds more than {@link #getMaxSize()} idle and
+	 * warming up BrowserDrivers.
+	 *
+	 * @param  count  The number of BrowserDrivers to start.
+	 */
+	public void warmUp(int count) {
+
+		int warmUpCount = Math.min(count, maxSize - getIdleCount() - warmingUpBrowserDrivers.size());
+
+		for (int i = 0; i < warmUpCount; i++) {
+
+			WarmingUpBrowserDriver warmingUpBrowserDriver = new WarmingUpBrowserDriver(new StartUpCallable());
+			Thread thread = new Thread(warmingUpBrowserDriver, "BrowserDriverPool-warm-up-" + i);
+			thread.setDaemon(true);
+			warmingUpBrowserDrivers.offerLast(warmingUpBrowserDriver);
+			thread.start();
+		}
+
+		if (warmUpCount > 0) {
+			logger.info("Warming up {} BrowserDriver(s) in the background.", warmUpCount);
+		}
+	}
+
+	private BrowserDriver createBrowserDriver() {
+
+		BrowserDriver browserDriver = browserDriverSupplier.get();
+		creationCount.incrementAndGet();
+		initialWindowIds.put(browserDriver, browserDriver.getCurrentWindowId());
+
+		return browserDriver;
+	}
+
+	private void quit(BrowserDriver browserDriver) {
+
+		initialWindowIds.remove(browserDriver);
+
+		try {
+			browserDriver.quit();
+		}
+		catch (RuntimeException e) {
+			logger.error("Failed to quit BrowserDriver: {}", e.getMessage());
+		}
+	}
+
+	private void reset(BrowserDriver browserDriver, boolean reset) {
+
+		String initialWindowId = initialWindowIds.get(browserDriver);
+		Set<String> windowIds = browserDriver.getWindowIds();
+
+		if ((initialWindowId == null) || !windowIds.contains(initialWindowId)) {
+			throw new IllegalStateException("The initial window of the BrowserDriver has been closed.");
+		}
+
+		for (String windowId : windowIds) {
+
+			if (!initialWindowId.equals(windowId)) {
+
+				browserDriver.switchToWindow(windowId);
+				browserDriver.closeCurrentWindow();
+			}
+		}
+
+		browserDriver.switchToWindow(initialWindowId);
+		browserDriver.getWebDriver().switchTo().defaultContent();
+
+		if (reset) {
+			browserDriver.reset();
+		}
+
+		browserDriver.setWaitTimeOut(TestUtil.getBrowserDriverWaitTimeOut());
+	}
+
+	private BrowserDriver takeWarmedUpBrowserDriver(boolean borrowing) {
+
+		WarmingUpBrowserDriver warmingUpBrowserDriver;
+
+		while ((warmingUpBrowserDriver = warmingUpBrowserDrivers.pollFirst()) != null) {
+
+			long startTime = System.nanoTime();
+
+			try {
+
+				BrowserDriver browserDriver = warmingUpBrowserDriver.get();
+
+				if (borrowing) {
+
+					long waitTimeNanos = System.nanoTime() - startTime;
+					long startUpTimeNanos = warmingUpBrowserDriver.getStartUpTimeNanos();
+					long hiddenTimeNanos = Math.max(0, startUpTimeNanos - waitTimeNanos);
+					warmUpWaitTimeNanos.addAndGet(waitTimeNanos);
+					warmUpHiddenTimeNanos.addAndGet(hiddenTimeNanos);
+					logger.info("Borrowed warmed up BrowserDriver: {}ms of startup hidden, {}ms waited.",
+						TimeUnit.NANOSECONDS.toMillis(hiddenTimeNanos), TimeUnit.NANOSECONDS.toMillis(waitTimeNanos));
+				}
+
+				return browserDriver;
+			}
+			catch (InterruptedException e) {
+
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for a BrowserDriver to warm up.", e);
+			}
+			catch (ExecutionException e) {
+				logger.error("Failed to warm up BrowserDriver: {}", e.getCause().getMessage());
+			}
+		}
+
+		return null;
+	}
+
+	private final class StartUpCallable implements Callable<BrowserDriver> {
+
+		// Private Data Members
+		private volatile long startUpTimeNanos;
+
+		@Override
+		public BrowserDriver call() throws Exception {
+
+			long startTime = System.nanoTime();
+			BrowserDriver browserDriver = createBrowserDriver();
+			startUpTimeNanos = System.nanoTime() - startTime;
+
+			return browserDriver;
+		}
+	}
+
+	private static final class WarmingUpBrowserDriver extends FutureTask<BrowserDriver> {
+
+		// Private Final Data Members
+		private final StartUpCallable startUpCallable;
+
+		public WarmingUpBrowserDriver(StartUpCallable startUpCallable) {
+
+			super(startUpCallable);
+			this.startUpCallable = startUpCallable;
+		}
+
+		public long getStartUpTimeNanos() {
+			return startUpCallable.startUpTimeNanos;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Keeps the url of the browser after each of the current test's most recent {@link BrowserDriver} actions (for
+ * example clicking an element or navigating to a url) in memory and writes them to disk only if the test fails. This
+ * shows the steps leading up to a failure without any capture I/O for passing tests. When {@link
+ * TestUtil#isBrowserStateHistoryMarkupRecorded()} is true, the markup after each action is kept as well, which shows
+ * how the page changed but costs a transfer of the full document after every action. At most {@link
+ * TestUtil#getBrowserStateHistorySize()} browser states using at most {@link
+ * TestUtil#getBrowserStateHistoryMaxMemory()} are kept; older states are discarded first. The history is inactive
+ * unless the <code>"integration.browser.state.history.size"</code> system property is set. When a test fails, its
+ * history is written to a <code>[test name]-history</code> directory in the <code>
+ * "integration.captured.browser.state.output.directory"</code> directory. {@link BrowserDriverManagingTesterBase}
+ * applies this rule to every test.
+ *
+ * @author  Kyle Stiemann
+ */
+public final class BrowserStateHistory extends TestWatcher {
+
+	// Logger
+	private static final Logger logger = LoggerFactory.getLogger(BrowserStateHistory.class);
+
+	// Private Static Data Members
+	private static final ThreadLocal<History> currentHistory = new ThreadLocal<History>();
+
+	/**
+	 * Returns true if the current test keeps a browser state history. {@link BrowserDriver} implementations should
+	 * check this before obtaining the url for {@link #record(String, String, String)}.
+	 */
+	public static boolean isRecording() {
+		return currentHistory.get() != null;
+	}
+
+	/**
+	 * Returns true if the current test keeps a browser state history which includes markup. {@link BrowserDriver}
+	 * implementations should check this before obtaining the markup for {@link #record(String, String, String)}.
+	 */
+	public static boolean isRecordingMarkup() {
+		return isRecording() && TestUtil.isBrowserStateHistoryMarkupRecorded();
+	}
+
+	/**
+	 * Adds the browser state after an action to the current test's history (if the test keeps a history).
+	 *
+	 * @param  actionDescription  A description of the action, for example <code>"clickElement(//button)"</code>.
+	 * @param  url  The url of the current window after the action.
+	 * @param  markup  The markup of the current window after the action or null if it could not be obtained (or is not
+	 *                  recorded, see {@link #isRecordingMarkup()}).
+	 */
+	public static void record(String actionDescription, String url, String markup) {
+
+		History history = currentHistory.get();
+
+		if (history != null) {
+			history.add(new BrowserState(System.currentTimeMillis(), actionDescription, url, markup));
+		}
+	}
+
+	private static String toFileName(String value) {
+		return value.replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+
+	@Override
+	public Statement apply(Statement base, Description description) {
+
+		if (TestUtil.getBrowserStateHistorySize() <= 0) {
+			return base;
+		}
+
+		return super.apply(base, description);
+	}
+
+	@Override
+	protected void failed(Throwable throwable, Description description) {
+
+		History history = currentHistory.get();
+
+		if ((history == null) || history.browserStates.isEmpty()) {
+			return;
+		}
+
+		String outputDirectoryPath = TestUtil.getSystemPropertyOrDefault(
+				"integration.captured.browser.state.output.directory",
+				Paths.get(System.getProperty("java.io.tmpdir"), "captured-browser-state").toString());
+		Path historyDirectory = Paths.get(outputDirectoryPath, toFileName(description.getDisplayName()) + "-history");
+
+		try {
+
+			Files.createDirectories(historyDirectory);
+
+			List<String> actionLines = new ArrayList<String>();
+			int i = 0;
+
+			for (BrowserState browserState : history.browserStates) {
+
+				String markupFileName = "";
+
+				if (browserState.markup != null) {
+
+					markupFileName = String.format("%03d", i) + "_" + toFileName(browserState.actionDescription) +
+						".html";
+
+					if (markupFileName.length() > 100) {
+						markupFileName = markupFileName.substring(0, 95) + ".html";
+					}
+
+					Files.write(historyDirectory.resolve(markupFileName),
+						browserState.markup.getBytes(StandardCharsets.UTF_8));
+				}
+
+				actionLines.add(Instant.ofEpochMilli(browserState.timeInMillis) + "\t" +
+					browserState.actionDescription.replaceAll("[\t\r\n]", " ") + "\t" +
+					String.valueOf(browserState.url).replaceAll("[\t\r\n]", " ") + "\t" + markupFileName);
+				i++;
+			}
+
+			Files.write(historyDirectory.resolve("actions.tsv"), actionLines, StandardCharsets.UTF_8);
+			logger.info("The last {} browser state(s) before {} failed have been written to {}",
+				history.browserStates.size(), description.getDisplayName(), historyDirectory);
+		}
+		catch (IOException e) {
+
+			logger.error("Unable to write browser state history to {} due to the following exception:\n",
+				historyDirectory);
+			logger.error("", e);
+		}
+	}
+
+	@Override
+	protected void finished(Description description) {
+		currentHistory.remove();
+	}
+
+	@Override
+	protected void starting(Description description) {
+
+		long maxMemoryInBytes = TestUtil.getBrowserStateHistoryMaxMemory() * 1024L * 1024L;
+		currentHistory.set(new History(TestUtil.getBrowserStateHistorySize(), maxMemoryInBytes));
+	}
+
+	private static final class BrowserState {
+
+		// Private Final Data Members
+		private final String actionDescription;
+		private final String markup;
+		private final long timeInMillis;
+		private final String url;
+
+		public BrowserState(long timeInMillis, String actionDescription, String url, String markup) {
+
+			this.timeInMillis = timeInMillis;
+			this.actionDescription = actionDescription;
+			this.url = url;
+			this.markup = markup;
+		}
+
+		public long getSizeInBytes() {
+
+			long sizeInBytes = actionDescription.length() * 2L;
+
+			if (markup != null) {
+				sizeInBytes += markup.length() * 2L;
+			}
+
+			return sizeInBytes;
+		}
+	}
+
+	private static final class History {
+
+		// Private Final Data Members
+		private final Deque<BrowserState> browserStates = new ArrayDeque<BrowserState>();
+		private final int maxBrowserStates;
+		private final long maxSizeInBytes;
+
+		// Private Data Members
+		private long sizeInBytes;
+
+		public History(int maxBrowserStates, long maxSizeInBytes) {
+
+			this.maxBrowserStates = maxBrowserStates;
+			this.maxSizeInBytes = maxSizeInBytes;
+		}
+
+		public void add(BrowserState browserState) {
+
+			// A single state which exceeds the memory limit is kept without its markup so that the action is still
+			// listed.
+			if (browserState.getSizeInBytes() > maxSizeInBytes) {
+				browserState = new BrowserState(browserState.timeInMillis, browserState.actionDescription,
+						browserState.url, null);
+			}
+
+			browserStates.addLast(browserState);
+			sizeInBytes += browserState.getSizeInBytes();
+
+			while ((browserStates.size() > maxBrowserStates) || (sizeInBytes > maxSizeInBytes)) {
+
+				BrowserState oldestBrowserState = browserStates.removeFirst();
+				sizeInBytes -= oldestBrowserState.getSizeInBytes();
+			}
+		}
+	}
+}
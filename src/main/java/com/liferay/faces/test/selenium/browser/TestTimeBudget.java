@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+
+/**
+ * Gives each test a wall-clock time budget of {@link TestUtil#getTestTimeBudget()}, measured from the start of the
+ * test, which limits its waits (see {@link BrowserDriver#waitFor(org.openqa.selenium.support.ui.ExpectedCondition)}
+ * and {@link WaitingAsserter}). Without a budget, a broken page can cost the wait time out once for every wait in a
+ * test. With a budget, each wait's time out is limited to the time remaining until the test's deadline, so time spent
+ * on other work (such as navigating or typing) also uses up the budget. Once the budget is exhausted, any wait whose
+ * condition is not already met fails with a breakdown of how the time was spent. The budget is inactive unless the <code>
+ * "integration.test.time.budget"</code> system property is set. {@link BrowserDriverManagingTesterBase} applies this
+ * rule to every test.
+ *
+ * @author  Kyle Stiemann
+ */
+public final class TestTimeBudget implements TestRule {
+
+	// Private Constants
+	private static final int MAX_BREAKDOWN_ENTRIES = 10;
+
+	// Private Static Data Members
+	private static final ThreadLocal<Budget> currentBudget = new ThreadLocal<Budget>();
+
+	/**
+	 * Returns a message which describes how the current test's budget was spent or null if no budget is active.
+	 */
+	public static String getBreakdown() {
+
+		Budget budget = currentBudget.get();
+		String breakdown = null;
+
+		if (budget != null) {
+			breakdown = budget.getBreakdown();
+		}
+
+		return breakdown;
+	}
+
+	/**
+	 * Returns the remaining time (in milliseconds) of the current test's budget (which may be negative once the budget
+	 * has been exhausted) or {@link Long#MAX_VALUE} if no budget is active.
+	 */
+	public static long getRemainingTimeInMillis() {
+
+		Budget budget = currentBudget.get();
+		long remainingTimeInMillis = Long.MAX_VALUE;
+
+		if (budget != null) {
+			remainingTimeInMillis = TimeUnit.NANOSECONDS.toMillis(budget.deadline - System.nanoTime());
+		}
+
+		return remainingTimeInMillis;
+	}
+
+	/**
+	 * Records the time spent waiting for a condition in the current test's breakdown (if a budget is active).
+	 */
+	public static void recordWait(String waitDescription, long waitTimeInMillis) {
+
+		Budget budget = currentBudget.get();
+
+		if (budget != null) {
+			budget.waitTimesInMillis.merge(waitDescription, waitTimeInMillis, Long::sum);
+		}
+	}
+
+	@Override
+	public Statement apply(final Statement base, final Description description) {
+
+		final long budgetInMillis = TimeUnit.SECONDS.toMillis(TestUtil.getTestTimeBudget());
+
+		if (budgetInMillis <= 0) {
+			return base;
+		}
+
+		return new Statement() {
+
+				@Override
+				public void evaluate() throws Throwable {
+
+					currentBudget.set(new Budget(description.getDisplayName(), budgetInMillis));
+
+					try {
+						base.evaluate();
+					}
+					finally {
+						currentBudget.remove();
+					}
+				}
+			};
+	}
+
+	private static final class Budget {
+
+		// Private Final Data Members
+		private final long budgetInMillis;
+		private final long deadline;
+		private final long startTime;
+		private final String testName;
+		private final Map<String, Long> waitTimesInMillis = new LinkedHashMap<String, Long>();
+
+		public Budget(String testName, long budgetInMillis) {
+
+			this.testName = testName;
+			this.budgetInMillis = budgetInMillis;
+			this.startTime = System.nanoTime();
+			this.deadline = startTime + TimeUnit.MILLISECONDS.toNanos(budgetInMillis);
+		}
+
+		public String getBreakdown() {
+
+			long elapsedTimeInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+			List<Map.Entry<String, Long>> waitTimeEntries = new ArrayList<Map.Entry<String, Long>>(
+					waitTimesInMillis.entrySet());
+			Collections.sort(waitTimeEntries, new Comparator<Map.Entry<String, Long>>() {
+
+					@Override
+					public int compare(Map.Entry<String, Long> entry1, Map.Entry<String, Long> entry2) {
+						return entry2.getValue().compareTo(entry1.getValue());
+					}
+				});
+
+			long totalWaitTimeInMillis = 0;
+
+			for (Map.Entry<String, Long> waitTimeEntry : waitTimeEntries) {
+				totalWaitTimeInMillis += waitTimeEntry.getValue();
+			}
+
+			StringBuilder buf = new StringBuilder();
+			buf.append("The time budget of ");
+			buf.append(budgetInMillis);
+			buf.append("ms for ");
+			buf.append(testName);
+			buf.append(" was exhausted after ");
+			buf.append(elapsedTimeInMillis);
+			buf.append("ms (");
+			buf.append(totalWaitTimeInMillis);
+			buf.append("ms waiting and ");
+			buf.append(Math.max(0, elapsedTimeInMillis - totalWaitTimeInMillis));
+			buf.append("ms doing other work). Longest waits:");
+
+			for (int i = 0; (i < waitTimeEntries.size()) && (i < MAX_BREAKDOWN_ENTRIES); i++) {
+
+				Map.Entry<String, Long> waitTimeEntry = waitTimeEntries.get(i);
+				buf.append("\n");
+				buf.append(waitTimeEntry.getValue());
+				buf.append("ms waiting for ");
+				buf.append(waitTimeEntry.getKey());
+			}
+
+			return buf.toString();
+		}
+	}
+}
@@ -15,9 +15,23 @@
  */
 package com.liferay.faces.test.selenium.browser;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openqa.selenium.Cookie;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.support.ui.ExpectedConditions;
 
+import org.slf4j.LoggerFactory;
+
 
 /**
  * @author  Kyle Stiemann
@@ -34,6 +48,15 @@ public final class TestUtil {
 	public static final String DEFAULT_PLUTO_CONTEXT = "/pluto/portal";
 	public static final int DEFAULT_BROWSER_DRIVER_WAIT_TIME_OUT;
 
+	// Private Constants
+	private static final boolean SIGN_IN_SESSION_CACHE = Boolean.valueOf(getSystemPropertyOrDefault(
+				"integration.sign.in.session.cache", "false"));
+	private static final boolean SIGN_IN_STORAGE_STATE = Boolean.valueOf(getSystemPropertyOrDefault(
+				"integration.sign.in.storage.state", "false"));
+
+	// Private Static Data Members
+	private static final Map<String, Set<Cookie>> signedInSessionCookies = new ConcurrentHashMap<String, Set<Cookie>>();
+
 	static {
 
 		int defaultBrowserDriverWaitTimeOut = 5;
@@ -64,6 +87,84 @@ public final class TestUtil {
 		throw new AssertionError();
 	}
 
+	/**
+	 * Returns the interval (in milliseconds) that <code>BrowserDriver.waitFor()</code> waits before checking a
+	 * condition for the second time. Each subsequent interval is multiplied by {@link
+	 * #getBrowserDriverPollingIntervalMultiplier()} until it reaches {@link #getBrowserDriverMaxPollingInterval()}.
+	 * This can be changed with the <code>"integration.browser.driver.polling.interval.initial"</code> system property.
+	 * The default value is 10.
+	 */
+	public static long getBrowserDriverInitialPollingInterval() {
+		return TestUtil.getBrowserDriverInitialPollingInterval(10L);
+	}
+
+	public static long getBrowserDriverInitialPollingInterval(Long defaultIntervalInMillis) {
+
+		String defaultIntervalInMillisString = defaultIntervalInMillis.toString();
+		String intervalInMillisString = getSystemPropertyOrDefault(
+				"integration.browser.driver.polling.interval.initial", defaultIntervalInMillisString);
+
+		return Long.parseLong(intervalInMillisString);
+	}
+
+	/**
+	 * Returns the maximum interval (in milliseconds) between two checks of a condition by <code>
+	 * BrowserDriver.waitFor()</code>. This can be changed with the <code>
+	 * "integration.browser.driver.polling.interval.max"</code> system property. The default value is 500 (the fixed
+	 * interval used by {@link org.openqa.selenium.support.ui.WebDriverWait}).
+	 */
+	public static long getBrowserDriverMaxPollingInterval() {
+		return TestUtil.getBrowserDriverMaxPollingInterval(500L);
+	}
+
+	public static long getBrowserDriverMaxPollingInterval(Long defaultIntervalInMillis) {
+
+		String defaultIntervalInMillisString = defaultIntervalInMillis.toString();
+		String intervalInMillisString = getSystemPropertyOrDefault(
+				"integration.browser.driver.polling.interval.max", defaultIntervalInMillisString);
+
+		return Long.parseLong(intervalInMillisString);
+	}
+
+	/**
+	 * Returns the factor by which the interval between two checks of a condition by <code>
+	 * BrowserDriver.waitFor()</code> grows after each check. This can be changed with the <code>
+	 * "integration.browser.driver.polling.interval.multiplier"</code> system property. The default value is 2. A value
+	 * of 1 results in a fixed polling interval.
+	 */
+	public static double getBrowserDriverPollingIntervalMultiplier() {
+		return TestUtil.getBrowserDriverPollingIntervalMultiplier(2.0);
+	}
+
+	public static double getBrowserDriverPollingIntervalMultiplier(Double defaultMultiplier) {
+
+		String defaultMultiplierString = defaultMultiplier.toString();
+		String multiplierString = getSystemPropertyOrDefault(
+				"integration.browser.driver.polling.interval.multiplier", defaultMultiplierString);
+
+		return Double.parseDouble(multiplierString);
+	}
+
+	/**
+	 * Returns the maximum number of {@link BrowserDriver}s which may be used at once by {@link
+	 * BrowserDriverManagingTesterBase}. This can be changed with the <code>
+	 * "integration.browser.driver.pool.size"</code> system property. The default value is 1. When test classes are
+	 * run in parallel (for example with surefire's <code>parallel=classes</code> mode), this value should be set to the
+	 * number of threads running tests.
+	 */
+	public static int getBrowserDriverPoolSize() {
+		return TestUtil.getBrowserDriverPoolSize(1);
+	}
+
+	public static int getBrowserDriverPoolSize(Integer defaultPoolSize) {
+
+		String defaultPoolSizeString = defaultPoolSize.toString();
+		String poolSizeString = getSystemPropertyOrDefault("integration.browser.driver.pool.size",
+				defaultPoolSizeString);
+
+		return Integer.parseInt(poolSizeString);
+	}
+
 	public static int getBrowserDriverWaitTimeOut() {
 		return TestUtil.getBrowserDriverWaitTimeOut(DEFAULT_BROWSER_DRIVER_WAIT_TIME_OUT);
 	}
@@ -77,6 +178,63 @@ public final class TestUtil {
 		return Integer.parseInt(timeOutInSecondsString);
 	}
 
+	/**
+	 * Returns the number of {@link BrowserDriver}s which should be started in the background when the test run starts
+	 * (see {@link BrowserDriverManagingTestSuiteListener}). This can be changed with the <code>
+	 * "integration.browser.driver.warm.up.count"</code> system property. The default value is 0 (no warm up). The
+	 * value is limited by {@link #getBrowserDriverPoolSize()}.
+	 */
+	public static int getBrowserDriverWarmUpCount() {
+		return TestUtil.getBrowserDriverWarmUpCount(0);
+	}
+
+	public static int getBrowserDriverWarmUpCount(Integer defaultWarmUpCount) {
+
+		String defaultWarmUpCountString = defaultWarmUpCount.toString();
+		String warmUpCountString = getSystemPropertyOrDefault("integration.browser.driver.warm.up.count",
+				defaultWarmUpCountString);
+
+		return Integer.parseInt(warmUpCountString);
+	}
+
+	/**
+	 * Returns the maximum amount of memory (in megabytes) that each test's {@link BrowserStateHistory} may use for
+	 * markup snapshots. This can be changed with the <code>"integration.browser.state.history.max.memory"</code>
+	 * system property. The default value is 16.
+	 */
+	public static int getBrowserStateHistoryMaxMemory() {
+		return TestUtil.getBrowserStateHistoryMaxMemory(16);
+	}
+
+	public static int getBrowserStateHistoryMaxMemory(Integer defaultMaxMemoryInMegabytes) {
+
+		String defaultMaxMemoryInMegabytesString = defaultMaxMemoryInMegabytes.toString();
+		String maxMemoryInMegabytesString = getSystemPropertyOrDefault("integration.browser.state.history.max.memory",
+				defaultMaxMemoryInMegabytesString);
+
+		return Integer.parseInt(maxMemoryInMegabytesString);
+	}
+
+	/**
+	 * Returns the number of browser states (in other words, the action, url, and potentially the markup after each
+	 * {@link BrowserDriver} action, see {@link #isBrowserStateHistoryMarkupRecorded()}) that {@link
+	 * BrowserStateHistory} keeps for each test. This can be changed with the <code>
+	 * "integration.browser.state.history.size"</code> system property. The default value is 0, which means that no
+	 * history is kept.
+	 */
+	public static int getBrowserStateHistorySize() {
+		return TestUtil.getBrowserStateHistorySize(0);
+	}
+
+	public static int getBrowserStateHistorySize(Integer defaultHistorySize) {
+
+		String defaultHistorySizeString = defaultHistorySize.toString();
+		String historySizeString = getSystemPropertyOrDefault("integration.browser.state.history.size",
+				defaultHistorySizeString);
+
+		return Integer.parseInt(historySizeString);
+	}
+
 	public static String getContainer() {
 		return getContainer("liferay");
 	}
@@ -93,6 +251,26 @@ public final class TestUtil {
 		return getSystemPropertyOrDefault("integration.host", defaultHost);
 	}
 
+	/**
+	 * Returns the time (in milliseconds) that the page must be idle (in other words, without DOM mutations and Ajax
+	 * requests) before a negative assertion (for example <code>WaitingAsserter.assertElementNotDisplayed()</code>)
+	 * fails without waiting for the rest of the wait time out. This can be changed with the <code>
+	 * "integration.browser.driver.negative.assertion.settle.time"</code> system property. The default value is 0, which
+	 * means that negative assertions wait for the full wait time out.
+	 */
+	public static long getNegativeAssertionSettleTime() {
+		return TestUtil.getNegativeAssertionSettleTime(0L);
+	}
+
+	public static long getNegativeAssertionSettleTime(Long defaultSettleTimeInMillis) {
+
+		String defaultSettleTimeInMillisString = defaultSettleTimeInMillis.toString();
+		String settleTimeInMillisString = getSystemPropertyOrDefault(
+				"integration.browser.driver.negative.assertion.settle.time", defaultSettleTimeInMillisString);
+
+		return Long.parseLong(settleTimeInMillisString);
+	}
+
 	public static String getPort() {
 		return getPort("8080");
 	}
@@ -126,6 +304,44 @@ public final class TestUtil {
 		return propertyValue;
 	}
 
+	/**
+	 * Returns the wall-clock time (in seconds) from the start of each test after which its waits fail (see {@link
+	 * TestTimeBudget}). This can be changed with the <code>"integration.test.time.budget"</code> system property. The
+	 * default value is 0, which means that tests have no time budget and each wait is only limited by {@link
+	 * #getBrowserDriverWaitTimeOut()}.
+	 */
+	public static int getTestTimeBudget() {
+		return TestUtil.getTestTimeBudget(0);
+	}
+
+	public static int getTestTimeBudget(Integer defaultTimeBudgetInSeconds) {
+
+		String defaultTimeBudgetInSecondsString = defaultTimeBudgetInSeconds.toString();
+		String timeBudgetInSecondsString = getSystemPropertyOrDefault("integration.test.time.budget",
+				defaultTimeBudgetInSecondsString);
+
+		return Integer.parseInt(timeBudgetInSecondsString);
+	}
+
+	/**
+	 * Returns true if {@link BrowserStateHistory} keeps the markup of the browser after each action in addition to the
+	 * action and url. Obtaining the markup costs a transfer of the full document after every action, so this is
+	 * disabled by default. This can be changed with the <code>"integration.browser.state.history.markup"</code> system
+	 * property.
+	 */
+	public static boolean isBrowserStateHistoryMarkupRecorded() {
+		return TestUtil.isBrowserStateHistoryMarkupRecorded(false);
+	}
+
+	public static boolean isBrowserStateHistoryMarkupRecorded(Boolean defaultMarkupRecorded) {
+
+		String defaultMarkupRecordedString = defaultMarkupRecorded.toString();
+		String markupRecordedString = getSystemPropertyOrDefault("integration.browser.state.history.markup",
+				defaultMarkupRecordedString);
+
+		return Boolean.parseBoolean(markupRecordedString);
+	}
+
 	public static void signIn(BrowserDriver browserDriver) {
 
 		String container = TestUtil.getContainer();
@@ -169,12 +385,161 @@ public final class TestUtil {
 				defaultSignInButtonXpath);
 		String login = TestUtil.getSystemPropertyOrDefault("integration.login", defaultLogin);
 		String password = TestUtil.getSystemPropertyOrDefault("integration.password", defaultPassword);
-		signIn(browserDriver, signInURL, loginXpath, login, passwordXpath, password, signInButtonXpath);
+		signIn(browserDriver, container, signInURL, loginXpath, login, passwordXpath, password, signInButtonXpath);
 	}
 
+	/**
+	 * Signs in to the container. If the <code>"integration.sign.in.session.cache"</code> system property is set to
+	 * <code>true</code>, the session cookies obtained by the first sign in for each sign in origin (the protocol, host,
+	 * and port of the sign in url) and login are cached and replayed into subsequent browsers. The sign in form is only
+	 * used again if the cached session is rejected (in other words, if the login field is still displayed when the sign
+	 * in url is visited with the cached cookies). Note that all browsers which replay the cached cookies share a single
+	 * server session, so server side per-session limits (for example the number of JSF views kept in the session) are
+	 * shared by all browsers, which may cause views to expire when tests are run in parallel.
+	 *
+	 * <p>If the <code>"integration.sign.in.storage.state"</code> system property is set to <code>true</code>, the
+	 * signed in storage state (see {@link BrowserDriver#exportStorageState(java.lang.String)}) is also persisted to the
+	 * <code>"integration.sign.in.storage.state.directory"</code> directory (<code>
+	 * ~/.liferay-faces-test/storage-state</code> by default) so that other JVMs (for example other surefire forks or
+	 * later test runs) can restore it. Since storage state files contain live session cookies, the directory and files
+	 * are only accessible by the current user. Storage state files are keyed by container, sign in origin, and login
+	 * and are ignored once they are older than <code>"integration.sign.in.storage.state.max.age"</code> seconds (900 by
+	 * default).</p>
+	 */
 	public static void signIn(BrowserDriver browserDriver, String signInURL, String loginXpath, String login,
 		String passwordXpath, String password, String signInButtonXpath) {
 
+		String container = TestUtil.getContainer();
+		signIn(browserDriver, container, signInURL, loginXpath, login, passwordXpath, password, signInButtonXpath);
+	}
+
+	/**
+	 * Returns the origin (protocol, host, and port) of the url or the url itself if it is not a valid absolute url.
+	 */
+	private static String getOrigin(String url) {
+
+		try {
+
+			URI uri = new URI(url);
+
+			if ((uri.getScheme() == null) || (uri.getHost() == null)) {
+				return url;
+			}
+
+			String origin = uri.getScheme() + "://" + uri.getHost();
+
+			if (uri.getPort() > -1) {
+				origin = origin + ":" + uri.getPort();
+			}
+
+			return origin;
+		}
+		catch (URISyntaxException e) {
+			return url;
+		}
+	}
+
+	private static Path getStorageStatePath(String container, String signInOrigin, String login) {
+
+		String userHome = System.getProperty("user.home");
+		String storageStateDirectory = getSystemPropertyOrDefault("integration.sign.in.storage.state.directory",
+				userHome + File.separator + ".liferay-faces-test" + File.separator + "storage-state");
+
+		// The file name contains every property which affects the signed in session, so a storage state file is never
+		// used for a different container, server, or login.
+		String fileName = (container + "_" + signInOrigin + "_" + login).replaceAll("[^a-zA-Z0-9_.\\-]", "_");
+
+		return Paths.get(storageStateDirectory, fileName + ".storage-state");
+	}
+
+	private static boolean isStorageStateFresh(Path storageStatePath) {
+
+		String maxAgeInSecondsString = getSystemPropertyOrDefault("integration.sign.in.storage.state.max.age", "900");
+		long maxAgeInMillis = Long.parseLong(maxAgeInSecondsString) * 1000L;
+
+		try {
+
+			// A missing file causes a NoSuchFileException.
+			long lastModifiedTimeInMillis = Files.getLastModifiedTime(storageStatePath).toMillis();
+
+			return (System.currentTimeMillis() - lastModifiedTimeInMillis) < maxAgeInMillis;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static boolean restoreSignedInSession(BrowserDriver browserDriver, String signInURL, String loginXpath,
+		Set<Cookie> sessionCookies) {
+
+		// Cookies can only be added to the domain of the current page.
+		browserDriver.navigateWindowTo(signInURL);
+		browserDriver.clearBrowserCookies();
+
+		for (Cookie sessionCookie : sessionCookies) {
+
+			// Omit the domain so that the cookie is added as a host-only cookie for the current page. Some browsers
+			// reject explicit domains such as "localhost".
+			Cookie cookie = new Cookie.Builder(sessionCookie.getName(), sessionCookie.getValue()).path(
+					sessionCookie.getPath()).expiresOn(sessionCookie.getExpiry()).isSecure(sessionCookie.isSecure())
+				.isHttpOnly(sessionCookie.isHttpOnly()).build();
+			browserDriver.addBrowserCookie(cookie);
+		}
+
+		browserDriver.navigateWindowTo(signInURL);
+		browserDriver.waitForElementDisplayed("//body");
+
+		return browserDriver.findElementsByXpath(loginXpath).isEmpty();
+	}
+
+	private static void signIn(BrowserDriver browserDriver, String container, String signInURL, String loginXpath,
+		String login, String passwordXpath, String password, String signInButtonXpath) {
+
+		String sessionKey = getOrigin(signInURL) + " " + login;
+
+		if (SIGN_IN_SESSION_CACHE) {
+
+			Set<Cookie> sessionCookies = signedInSessionCookies.get(sessionKey);
+
+			if (sessionCookies != null) {
+
+				if (restoreSignedInSession(browserDriver, signInURL, loginXpath, sessionCookies)) {
+					return;
+				}
+
+				// The cached session has expired or has been invalidated, so sign in again.
+				signedInSessionCookies.remove(sessionKey);
+			}
+		}
+
+		Path storageStatePath = getStorageStatePath(container, getOrigin(signInURL), login);
+
+		if (SIGN_IN_STORAGE_STATE && isStorageStateFresh(storageStatePath)) {
+
+			try {
+
+				// The storage state may have been exported by another surefire fork or by a previous test run.
+				browserDriver.importStorageState(storageStatePath.toString());
+				browserDriver.navigateWindowTo(signInURL);
+				browserDriver.waitForElementDisplayed("//body");
+
+				if (browserDriver.findElementsByXpath(loginXpath).isEmpty()) {
+
+					if (SIGN_IN_SESSION_CACHE) {
+						signedInSessionCookies.put(sessionKey, browserDriver.getBrowserCookies());
+					}
+
+					return;
+				}
+			}
+			catch (IOException | UnsupportedOperationException e) {
+				// The logger is not stored in a field since TestUtilTest loads TestUtil without its dependencies.
+				LoggerFactory.getLogger(TestUtil.class).warn(
+					"Unable to sign in with the storage state file {}. Signing in with the form instead.",
+					storageStatePath, e);
+			}
+		}
+
 		browserDriver.navigateWindowTo(signInURL);
 		browserDriver.waitForElementEnabled(loginXpath);
 		browserDriver.clearElement(loginXpath);
@@ -186,5 +551,19 @@ public final class TestUtil {
 		browserDriver.clickElement(signInButtonXpath);
 		browserDriver.waitFor(ExpectedConditions.stalenessOf(loginElement));
 		browserDriver.waitForElementDisplayed("//body");
+
+		if (SIGN_IN_SESSION_CACHE) {
+			signedInSessionCookies.put(sessionKey, browserDriver.getBrowserCookies());
+		}
+
+		if (SIGN_IN_STORAGE_STATE) {
+
+			try {
+				browserDriver.exportStorageState(storageStatePath.toString());
+			}
+			catch (IOException | UnsupportedOperationException e) {
+				// The storage state is only an optimization for later sign ins.
+			}
+		}
 	}
 }
@@ -24,7 +24,8 @@ import org.openqa.selenium.support.ui.ExpectedConditions;
  * Throws an {@link AssertionError} if the {@link BrowserDriver} is in an unexpected state (more technically if the
  * state of the BrowserDriver does not match the {@link ExpectedCondition}). This class will wait for the amount of time
  * specified by {@link TestUtil#getBrowserDriverWaitTimeOut()} (or {@link BrowserDriver#setWaitTimeOut(int)}) before
- * failing the assertion.
+ * failing the assertion. Negative assertions (such as {@link #assertElementNotDisplayed(java.lang.String)}) may fail
+ * earlier once the page has been idle for {@link TestUtil#getNegativeAssertionSettleTime()}.
  *
  * @author  Kyle Stiemann
  */
@@ -175,4 +176,27 @@ public interface WaitingAsserter {
 	 * @param  expectedCondition  The expected condition of the browser.
 	 */
 	public void assertTrue(ExpectedCondition expectedCondition);
+
+	/**
+	 * Begins a batch of assertions. Until {@link #endBatch()} is called, assertions are not checked immediately, but
+	 * are instead collected so that they can all be checked together (with a single shared time out) by {@link
+	 * #endBatch()}. The default implementation does nothing, so assertions are checked immediately.
+	 *
+	 * @throws  IllegalStateException  If a batch has already been begun.
+	 */
+	public default void beginBatch() {
+		// Do nothing.
+	}
+
+	/**
+	 * Ends the current batch of assertions and checks all of them together. This method will wait for the amount of
+	 * time specified by {@link TestUtil#getBrowserDriverWaitTimeOut()} (or {@link BrowserDriver#setWaitTimeOut(int)})
+	 * for all assertions to be satisfied before failing with an {@link AssertionError} which reports every assertion
+	 * that was not satisfied. The default implementation does nothing, since assertions are checked immediately.
+	 *
+	 * @throws  IllegalStateException  If no batch has been begun.
+	 */
+	public default void endBatch() {
+		// Do nothing.
+	}
 }
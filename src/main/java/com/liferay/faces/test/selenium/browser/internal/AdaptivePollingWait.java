@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.openqa.selenium.NotFoundException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.support.ui.Wait;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A {@link Wait} which checks the condition immediately and then polls with an interval that starts short and grows
+ * exponentially up to a maximum. Short initial intervals allow waits for conditions which are met quickly (for
+ * example on a fast local container) to return almost immediately, while the maximum interval prevents slow waits from
+ * flooding the browser with commands. Like {@link org.openqa.selenium.support.ui.WebDriverWait}, {@link
+ * NotFoundException}s thrown by the condition are ignored.
+ *
+ * @author  Kyle Stiemann
+ */
+public final class AdaptivePollingWait implements Wait<WebDriver> {
+
+	// Logger
+	private static final Logger logger = LoggerFactory.getLogger(AdaptivePollingWait.class);
+
+	// Private Final Data Members
+	private final long initialPollingIntervalInMillis;
+	private final long maxPollingIntervalInMillis;
+	private final double pollingIntervalMultiplier;
+	private final long timeOutInMillis;
+	private final WebDriver webDriver;
+
+	public AdaptivePollingWait(WebDriver webDriver, long timeOutInMillis, long initialPollingIntervalInMillis,
+		double pollingIntervalMultiplier, long maxPollingIntervalInMillis) {
+
+		this.webDriver = webDriver;
+		this.timeOutInMillis = timeOutInMillis;
+		this.initialPollingIntervalInMillis = Math.max(1, initialPollingIntervalInMillis);
+		this.pollingIntervalMultiplier = Math.max(1, pollingIntervalMultiplier);
+		this.maxPollingIntervalInMillis = Math.max(this.initialPollingIntervalInMillis, maxPollingIntervalInMillis);
+	}
+
+	public long getTimeOutInMillis() {
+		return timeOutInMillis;
+	}
+
+	@Override
+	public <T> T until(Function<? super WebDriver, T> isTrue) {
+
+		long startTime = System.nanoTime();
+		long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(timeOutInMillis);
+		double pollingIntervalInMillis = initialPollingIntervalInMillis;
+		RuntimeException lastException = null;
+		int pollCount = 0;
+
+		while (true) {
+
+			pollCount++;
+
+			try {
+
+				T value = isTrue.apply(webDriver);
+
+				if ((value != null) && !Boolean.FALSE.equals(value)) {
+
+					if (logger.isDebugEnabled()) {
+						logger.debug("Condition {} was met after {} poll(s) in {}ms.", isTrue, pollCount,
+							TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+					}
+
+					return value;
+				}
+
+				lastException = null;
+			}
+			catch (NotFoundException e) {
+				lastException = e;
+			}
+
+			long remainingTimeInMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+			if (remainingTimeInMillis <= 0) {
+				break;
+			}
+
+			long sleepTimeInMillis = Math.min((long) pollingIntervalInMillis, remainingTimeInMillis);
+
+			try {
+				Thread.sleep(sleepTimeInMillis);
+			}
+			catch (InterruptedException e) {
+
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+
+			pollingIntervalInMillis = Math.min(pollingIntervalInMillis * pollingIntervalMultiplier,
+					maxPollingIntervalInMillis);
+		}
+
+		logger.debug("Condition {} was not met after {} poll(s) in {}ms.", isTrue, pollCount, timeOutInMillis);
+
+		String message = "Expected condition failed: waiting for " + isTrue + " (tried for " + timeOutInMillis +
+			" millisecond(s) with " + pollCount + " poll(s) backing off from " + initialPollingIntervalInMillis +
+			"ms to " + maxPollingIntervalInMillis + "ms)";
+
+		throw new TimeoutException(message, lastException);
+	}
+}
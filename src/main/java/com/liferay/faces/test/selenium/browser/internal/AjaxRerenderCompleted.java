@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser.internal;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.ui.ExpectedCondition;
+
+
+/**
+ * Expects all Ajax requests which began after {@link #installAjaxRequestTracker(JavascriptExecutor)} was called to
+ * have completed (including their DOM updates). Requests are tracked via <code>jsf.ajax.addOnEvent()</code>, <code>
+ * jsf.ajax.addOnError()</code>, and Liferay's <code>startNavigate</code>/<code>endNavigate</code> events (when
+ * available). If the page is replaced or no request is started, the condition falls back to expecting the rerendered
+ * element to be stale.
+ *
+ * @author  Kyle Stiemann
+ */
+public final class AjaxRerenderCompleted implements ExpectedCondition<Boolean> {
+
+	// Private Constants
+	private static final String AJAX_REQUESTS_COMPLETED_SCRIPT =
+		"var tracker = window.liferayFacesTestAjaxRequestTracker, element = arguments[0];" +
+		"if (!tracker) { return true; }" + "if (tracker.inFlight > 0) { return false; }" +
+		"return tracker.begun > arguments[1] || !element.ownerDocument.documentElement.contains(element);";
+	private static final String INSTALL_AJAX_REQUEST_TRACKER_SCRIPT =
+		"var tracker = window.liferayFacesTestAjaxRequestTracker;" + "if (!tracker) {" +
+		"tracker = {begun: 0, inFlight: 0};" +
+		"function begin() { tracker.begun++; tracker.inFlight++; }" +
+		"function end() { tracker.inFlight = Math.max(0, tracker.inFlight - 1); }" + "var installed = false;" +
+		"if (window.jsf && window.jsf.ajax) {" +
+		"jsf.ajax.addOnEvent(function(data) { if (data.status === 'begin') { begin(); } " +
+		"else if (data.status === 'success') { end(); } });" + "jsf.ajax.addOnError(function(data) { end(); });" +
+		"installed = true; }" + "if (window.Liferay && typeof window.Liferay.on === 'function') {" +
+		"Liferay.on('startNavigate', begin); Liferay.on('endNavigate', end); installed = true; }" +
+		"if (!installed) { return null; }" + "window.liferayFacesTestAjaxRequestTracker = tracker; }" +
+		"return tracker.begun;";
+
+	// Private Final Data Members
+	private final long ajaxRequestsBegun;
+	private final WebElement rerenderElement;
+
+	public AjaxRerenderCompleted(WebElement rerenderElement, long ajaxRequestsBegun) {
+
+		this.rerenderElement = rerenderElement;
+		this.ajaxRequestsBegun = ajaxRequestsBegun;
+	}
+
+	/**
+	 * Installs the Ajax request tracker in the current window (if it is not already installed).
+	 *
+	 * @return  The number of Ajax requests which have begun in the current window or null if the current window does
+	 *          not contain a JSF or Liferay Ajax API to track requests with.
+	 */
+	public static Long installAjaxRequestTracker(JavascriptExecutor javascriptExecutor) {
+
+		Number ajaxRequestsBegun = (Number) javascriptExecutor.executeScript(INSTALL_AJAX_REQUEST_TRACKER_SCRIPT);
+		Long longAjaxRequestsBegun = null;
+
+		if (ajaxRequestsBegun != null) {
+			longAjaxRequestsBegun = ajaxRequestsBegun.longValue();
+		}
+
+		return longAjaxRequestsBegun;
+	}
+
+	@Override
+	public Boolean apply(WebDriver webDriver) {
+
+		JavascriptExecutor javascriptExecutor = (JavascriptExecutor) webDriver;
+
+		try {
+			return Boolean.TRUE.equals(javascriptExecutor.executeScript(AJAX_REQUESTS_COMPLETED_SCRIPT,
+						rerenderElement, ajaxRequestsBegun));
+		}
+		catch (StaleElementReferenceException e) {
+
+			// The page was replaced.
+			return true;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "Ajax requests to complete or element " + rerenderElement + " to be stale";
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NotFoundException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.ui.ExpectedCondition;
+
+
+/**
+ * Expects every one of a batch of conditions to have been met at least once. Each check only evaluates the conditions
+ * which have not been met yet, and the predicates of all unmet {@link BrowserSideCondition}s are evaluated together in
+ * a single <code>executeScript()</code> call.
+ *
+ * @author  Kyle Stiemann
+ */
+public final class BatchedExpectedCondition implements ExpectedCondition<Boolean> {
+
+	// Private Final Data Members
+	private final List<ExpectedCondition<?>> unmetExpectedConditions;
+
+	public BatchedExpectedCondition(List<ExpectedCondition<?>> expectedConditions) {
+		this.unmetExpectedConditions = new ArrayList<ExpectedCondition<?>>(expectedConditions);
+	}
+
+	private static boolean isMet(ExpectedCondition<?> expectedCondition, WebDriver webDriver) {
+
+		boolean met = false;
+
+		try {
+
+			Object result = expectedCondition.apply(webDriver);
+			met = (result != null) && !Boolean.FALSE.equals(result);
+		}
+		catch (NotFoundException | StaleElementReferenceException e) {
+			// Do nothing.
+		}
+
+		return met;
+	}
+
+	@Override
+	public Boolean apply(WebDriver webDriver) {
+
+		List<Boolean> predicateResults = evaluatePredicates(webDriver);
+
+		for (int i = unmetExpectedConditions.size() - 1; i > -1; i--) {
+
+			ExpectedCondition<?> expectedCondition = unmetExpectedConditions.get(i);
+
+			// Only confirm the conditions whose predicates are true with Selenium.
+			boolean met;
+
+			if ((predicateResults != null) && (expectedCondition instanceof BrowserSideCondition)) {
+				met = Boolean.TRUE.equals(predicateResults.get(i)) &&
+					isMet(((BrowserSideCondition) expectedCondition).getExpectedCondition(), webDriver);
+			}
+			else {
+				met = isMet(expectedCondition, webDriver);
+			}
+
+			if (met) {
+				unmetExpectedConditions.remove(i);
+			}
+		}
+
+		return unmetExpectedConditions.isEmpty();
+	}
+
+	/**
+	 * Checks each unmet condition once with Selenium alone and returns true if all of them are met. Since the
+	 * predicate of a {@link BrowserSideCondition} only approximates its Selenium condition, this should be called
+	 * before reporting the unmet conditions as failed.
+	 */
+	public boolean applyExpectedConditions(WebDriver webDriver) {
+
+		for (int i = unmetExpectedConditions.size() - 1; i > -1; i--) {
+
+			ExpectedCondition<?> expectedCondition = unmetExpectedConditions.get(i);
+
+			if (expectedCondition instanceof BrowserSideCondition) {
+				expectedCondition = ((BrowserSideCondition) expectedCondition).getExpectedCondition();
+			}
+
+			if (isMet(expectedCondition, webDriver)) {
+				unmetExpectedConditions.remove(i);
+			}
+		}
+
+		return unmetExpectedConditions.isEmpty();
+	}
+
+	/**
+	 * Returns the conditions which have not been met (yet).
+	 */
+	public List<ExpectedCondition<?>> getUnmetExpectedConditions() {
+		return Collections.unmodifiableList(unmetExpectedConditions);
+	}
+
+	@Override
+	public String toString() {
+		return unmetExpectedConditions.size() + " batched condition(s) " + unmetExpectedConditions;
+	}
+
+	/**
+	 * Evaluates the predicates of all unmet {@link BrowserSideCondition}s in a single script and returns the results
+	 * in the same order as the unmet conditions (with null for other conditions) or null if the predicates cannot be
+	 * evaluated in the browser.
+	 */
+	private List<Boolean> evaluatePredicates(WebDriver webDriver) {
+
+		if (!BrowserSideCondition.isPredicateEvaluatedInBrowser(webDriver)) {
+			return null;
+		}
+
+		StringBuilder buf = new StringBuilder(BrowserSideCondition.PREDICATE_FUNCTIONS);
+		buf.append("var elements = arguments[0], results = [];");
+
+		List<WebElement> webElements = new ArrayList<WebElement>();
+		boolean browserSideConditionUnmet = false;
+
+		for (ExpectedCondition<?> expectedCondition : unmetExpectedConditions) {
+
+			if (expectedCondition instanceof BrowserSideCondition) {
+
+				BrowserSideCondition browserSideCondition = (BrowserSideCondition) expectedCondition;
+				buf.append("results.push((function(element) { try { return !!(");
+				buf.append(browserSideCondition.getPredicate());
+				buf.append("); } catch (e) { return false; } })(elements[");
+				buf.append(webElements.size());
+				buf.append("]));");
+				webElements.add(browserSideCondition.getWebElement());
+				browserSideConditionUnmet = true;
+			}
+			else {
+
+				buf.append("results.push(null);");
+				webElements.add(null);
+			}
+		}
+
+		if (!browserSideConditionUnmet) {
+			return null;
+		}
+
+		buf.append("return results;");
+
+		List<Boolean> predicateResults = null;
+
+		try {
+
+			JavascriptExecutor javascriptExecutor = (JavascriptExecutor) webDriver;
+			List<?> results = (List<?>) javascriptExecutor.executeScript(buf.toString(), webElements);
+			predicateResults = new ArrayList<Boolean>(results.size());
+
+			for (Object result : results) {
+				predicateResults.add((Boolean) result);
+			}
+		}
+		catch (StaleElementReferenceException e) {
+			// Fall back to checking each condition with Selenium.
+		}
+
+		return predicateResults;
+	}
+}
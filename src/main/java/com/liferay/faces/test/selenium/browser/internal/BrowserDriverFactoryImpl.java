@@ -237,4 +237,12 @@ public class BrowserDriverFactoryImpl extends BrowserDriverFactory {
 		boolean browserSimulateMobile) {
 		return new BrowserDriverImpl(webDriver, browserHeadless, browserSimulateMobile);
 	}
+
+	/**
+	 * Finishes writing captured browser state (see {@link CapturedBrowserStateShutdown#shutDown()}).
+	 */
+	@Override
+	public void shutDownImplementation() {
+		CapturedBrowserStateShutdown.shutDown();
+	}
 }
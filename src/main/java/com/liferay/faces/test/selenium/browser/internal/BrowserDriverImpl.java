@@ -15,44 +15,69 @@
  */
 package com.liferay.faces.test.selenium.browser.internal;
 
+import java.awt.Rectangle;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
-import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.openqa.selenium.By;
 import org.openqa.selenium.Cookie;
-import org.openqa.selenium.Dimension;
 import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.Keys;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.NotFoundException;
 import org.openqa.selenium.OutputType;
-import org.openqa.selenium.Rectangle;
+import org.openqa.selenium.SearchContext;
+import org.openqa.selenium.StaleElementReferenceException;
 import org.openqa.selenium.TakesScreenshot;
+import org.openqa.selenium.TimeoutException;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.interactions.Action;
 import org.openqa.selenium.interactions.Actions;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
 import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.SessionId;
 import org.openqa.selenium.support.ui.ExpectedCondition;
-import org.openqa.selenium.support.ui.ExpectedConditions;
-import org.openqa.selenium.support.ui.WebDriverWait;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.liferay.faces.test.selenium.browser.BrowserDriver;
+import com.liferay.faces.test.selenium.browser.BrowserStateHistory;
+import com.liferay.faces.test.selenium.browser.TestTimeBudget;
 import com.liferay.faces.test.selenium.browser.TestUtil;
-import com.liferay.faces.test.selenium.expectedconditions.ElementEnabled;
 import com.liferay.faces.test.selenium.util.ClosableUtil;
 
+import com.machinepublishers.jbrowserdriver.JBrowserDriver;
+
 
 /**
  * @author  Kyle Stiemann
@@ -63,7 +88,109 @@ public class BrowserDriverImpl implements BrowserDriver {
 	private static final Logger logger = LoggerFactory.getLogger(BrowserDriverImpl.class);
 
 	// Private Constants
+	private static final boolean CAPTURED_BROWSER_STATE_ASYNC = Boolean.valueOf(TestUtil.getSystemPropertyOrDefault(
+				"integration.captured.browser.state.async", "false"));
+	private static final DateTimeFormatter CAPTURED_BROWSER_STATE_DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern(
+			"yyyy-MM-dd_HH:mm:ss.SSS", Locale.ENGLISH);
+
+	// Focuses the element, clears the value in constant time, and fires the events which JSF and AlloyUI components
+	// listen for while a user clears the value with the keyboard. As with the keyboard, the change event (which
+	// triggers <f:ajax> valueChange behaviors and onchange listeners) is fired once the element loses focus, unless
+	// the browser has already fired it because the value was typed afterwards. Only text-like input and textarea
+	// elements are cleared via JavaScript. Other elements (or elements whose value cannot be cleared via JavaScript)
+	// are reported as not cleared so that they can be cleared with keystrokes instead.
+	private static final String CENTER_AND_CLEAR_ELEMENT_SCRIPT = "var element = " +
+		"document.evaluate(arguments[0], document, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null).singleNodeValue;" +
+		"if (!element) { return null; }" +
+		"window.scrollTo(0, (element.getBoundingClientRect().top + window.pageYOffset) - (window.innerHeight / 2));" +
+		"var tagName = element.tagName.toLowerCase();" +
+		"var textLike = (tagName === 'textarea') || ((tagName === 'input') && " +
+		"['email', 'number', 'password', 'search', 'tel', 'text', 'url'].indexOf(element.type) > -1);" +
+		"if (!textLike || element.disabled || element.readOnly) { return [element, false]; }" +
+		"if (element.value === '') { return [element, true]; }" + "var initialValue = element.value;" +
+		"var changed = false;" + "var onChange = function() { changed = true; };" +
+		"var onBlur = function() {" + "element.removeEventListener('change', onChange);" +
+		"element.removeEventListener('blur', onBlur);" + "if (!changed && (element.value !== initialValue)) {" +
+		"var event = document.createEvent('HTMLEvents');" + "event.initEvent('change', true, false);" +
+		"element.dispatchEvent(event); } };" + "element.addEventListener('change', onChange);" +
+		"element.addEventListener('blur', onBlur);" + "element.focus();" + "element.value = '';" +
+		"var eventNames = ['input', 'keyup'];" + "for (var i = 0; i < eventNames.length; i++) {" +
+		"var event = document.createEvent('HTMLEvents');" + "event.initEvent(eventNames[i], true, true);" +
+		"element.dispatchEvent(event); }" + "return [element, element.value === ''];";
+	private static final String CENTER_ELEMENT_AND_GET_HEIGHTS_SCRIPT = "var element = " +
+		"document.evaluate(arguments[0], document, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null).singleNodeValue;" +
+		"if (!element) { return null; }" +
+		"return [element, element.offsetHeight, document.documentElement.clientHeight || window.innerHeight];";
+	private static final String CENTER_ELEMENT_AND_GET_VISIBILITY_SCRIPT = "var element = " +
+		"document.evaluate(arguments[0], document, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null).singleNodeValue;" +
+		"if (!element) { return null; }" + "element.scrollIntoView({block: 'center'});" +
+		"var rect = element.getBoundingClientRect();" +
+		"return [element, rect.top >= 0 && rect.left >= 0 && rect.bottom <= window.innerHeight && " +
+		"rect.right <= window.innerWidth];";
+
+	// http://stackoverflow.com/questions/8922107/javascript-scrollintoview-middle-alignment#36499256
+	private static final String CENTER_ELEMENT_SCRIPT = "var element = " +
+		"document.evaluate(arguments[0], document, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null).singleNodeValue;" +
+		"if (element) {" +
+		"window.scrollTo(0, (element.getBoundingClientRect().top + window.pageYOffset) - (window.innerHeight / 2));" +
+		"}" + "return element;";
+	private static final int DOCUMENT_MARKUP_CHUNK_SIZE = 1024 * 1024;
+	private static final String FIND_ELEMENTS_BY_XPATHS_SCRIPT = "var xpaths = arguments[0], results = [];" +
+		"for (var i = 0; i < xpaths.length; i++) {" +
+		"var snapshot = document.evaluate(xpaths[i], document, null, XPathResult.ORDERED_NODE_SNAPSHOT_TYPE, null);" +
+		"var elements = [];" + "for (var j = 0; j < snapshot.snapshotLength; j++) {" +
+		"var node = snapshot.snapshotItem(j);" + "if (node.nodeType === 1) { elements.push(node); } }" +
+		"results.push(elements); }" + "return results;";
+
+	// Ends the chunk before (rather than after) a high surrogate so that a surrogate pair is never split between two
+	// chunks. A lone surrogate would be replaced with U+FFFD when the chunk is transferred to the driver.
+	private static final String GET_DOCUMENT_MARKUP_CHUNK_SCRIPT =
+		"var markup = window.liferayFacesTestDocumentMarkup, start = arguments[0], end = arguments[1];" +
+		"var code = markup.charCodeAt(end - 1);" +
+		"if ((end < markup.length) && ((end - 1) > start) && (code >= 0xD800) && (code <= 0xDBFF)) { end--; }" +
+		"return markup.substring(start, end);";
+
+	// Screenshots are taken of the viewport in device pixels, so the element's viewport bounds are scaled by the
+	// device pixel ratio.
+	private static final String GET_SCREENSHOT_CROP_REGION_SCRIPT = "var element = " +
+		"document.evaluate(arguments[0], document, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null).singleNodeValue;" +
+		"if (!element) { return null; }" +
+		"var rect = element.getBoundingClientRect(), ratio = window.devicePixelRatio || 1;" +
+		"return [Math.floor(rect.left * ratio), Math.floor(rect.top * ratio), Math.ceil(rect.width * ratio), " +
+		"Math.ceil(rect.height * ratio)];";
+	private static final String GET_STORAGE_SCRIPT = "var storage = window[arguments[0]], items = {};" +
+		"for (var i = 0; i < storage.length; i++) { var key = storage.key(i); items[key] = storage.getItem(key); }" +
+		"return items;";
+	private static final boolean HTMLUNIT_BACKGROUND_JAVASCRIPT_WAIT = Boolean.valueOf(
+			TestUtil.getSystemPropertyOrDefault("integration.browser.driver.htmlunit.background.javascript.wait",
+				"true"));
 	private static final String JAVA_IO_TMPDIR;
+	private static final long MUTATION_OBSERVER_WAIT_SLICE_IN_MILLIS = 500;
+
+	// Resolves as soon as a DOM mutation makes the predicate true or, in case the condition changes without a DOM
+	// mutation (for example at the end of a CSS transition), once the time slice has elapsed.
+	private static final String MUTATION_OBSERVER_WAIT_SCRIPT = "if (predicate()) { callback(true); return; }" +
+		"var done = false, observer, timer;" + "function finish(result) {" + "if (done) { return; }" +
+		"done = true; observer.disconnect(); clearTimeout(timer); callback(result); }" +
+		"observer = new MutationObserver(function() { if (predicate()) { finish(true); } });" +
+		"observer.observe(document, {attributes: true, characterData: true, childList: true, subtree: true});" +
+		"timer = setTimeout(function() { finish(predicate()); }, timeOut);";
+	private static final String REMOVE_DOCUMENT_MARKUP_SCRIPT = "delete window.liferayFacesTestDocumentMarkup;";
+	private static final String RERENDER_MODE = TestUtil.getSystemPropertyOrDefault(
+			"integration.browser.driver.rerender.mode", "staleness");
+	private static final String SCREENSHOT_CROP_XPATH = TestUtil.getSystemPropertyOrDefault(
+			"integration.captured.browser.state.screenshot.crop.xpath", null);
+	private static final String SET_STORAGE_SCRIPT = "var storage = window[arguments[0]], items = arguments[1];" +
+		"storage.clear(); for (var key in items) { storage.setItem(key, items[key]); }";
+
+	// Keeps the markup in the browser so that it can be transferred in chunks.
+	private static final String STORE_DOCUMENT_MARKUP_SCRIPT = "var markup = document.documentElement[arguments[0]];" +
+		"window.liferayFacesTestDocumentMarkup = markup; return markup.length;";
+
+	private static final boolean WAIT_CALIBRATION = Boolean.valueOf(TestUtil.getSystemPropertyOrDefault(
+				"integration.browser.driver.wait.calibration", "false"));
+	private static final String WAIT_ENGINE = TestUtil.getSystemPropertyOrDefault(
+			"integration.browser.driver.wait.engine", "polling");
 
 	static {
 
@@ -76,12 +203,15 @@ public class BrowserDriverImpl implements BrowserDriver {
 		JAVA_IO_TMPDIR = javaIOTmpdir;
 	}
 
+	// Private Final Data Members
+	private final Map<String, Long> commandCounts = new HashMap<String, Long>();
+
 	// Private Member Variables
 	private boolean browserHeadless;
 	private boolean browserSimulatingMobile;
+	private boolean scriptTimeOutSet;
+	private int waitTimeOutInSeconds;
 	private WebDriver webDriver;
-	private WebDriverWait webDriverWait;
-	private Integer windowHeight;
 
 	public BrowserDriverImpl(WebDriver webDriver, boolean browserHeadless, boolean browserSimulatingMobile) {
 
@@ -90,7 +220,84 @@ public class BrowserDriverImpl implements BrowserDriver {
 		this.browserSimulatingMobile = browserSimulatingMobile;
 
 		int browserWaitTimeOut = TestUtil.getBrowserDriverWaitTimeOut();
-		this.webDriverWait = new WebDriverWait(webDriver, browserWaitTimeOut);
+		this.waitTimeOutInSeconds = browserWaitTimeOut;
+	}
+
+	/**
+	 * Returns true if the condition (or a condition which it wraps) refers to an element, a driver, or a browser
+	 * session. The descriptions of such conditions include the browser session, so they differ between test runs.
+	 */
+	private static boolean isBoundToBrowserSession(Object expectedCondition) {
+
+		Class<?> conditionClass = expectedCondition.getClass();
+
+		while ((conditionClass != null) && !Object.class.equals(conditionClass)) {
+
+			for (Field field : conditionClass.getDeclaredFields()) {
+
+				if (Modifier.isStatic(field.getModifiers())) {
+					continue;
+				}
+
+				Object value;
+
+				try {
+
+					field.setAccessible(true);
+					value = field.get(expectedCondition);
+				}
+				catch (IllegalAccessException | RuntimeException e) {
+
+					// The condition cannot be inspected, so assume that it refers to the browser session.
+					return true;
+				}
+
+				if ((value instanceof SearchContext) || (value instanceof SessionId) ||
+						((value instanceof ExpectedCondition) && isBoundToBrowserSession(value))) {
+					return true;
+				}
+
+				if (value instanceof Object[]) {
+					value = Arrays.asList((Object[]) value);
+				}
+
+				if (value instanceof Collection) {
+
+					for (Object item : (Collection<?>) value) {
+
+						if ((item instanceof ExpectedCondition) && isBoundToBrowserSession(item)) {
+							return true;
+						}
+					}
+				}
+			}
+
+			conditionClass = conditionClass.getSuperclass();
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns true if the condition can only change when the document changes. Other conditions (for example ones that
+	 * depend on elapsed time or on the server) may be met without any JavaScript running in the browser.
+	 */
+	private static boolean isDocumentCondition(ExpectedCondition<?> expectedCondition) {
+
+		boolean documentCondition = (expectedCondition instanceof BrowserSideCondition) ||
+			(expectedCondition instanceof AjaxRerenderCompleted);
+
+		if (expectedCondition instanceof BatchedExpectedCondition) {
+
+			documentCondition = true;
+
+			for (ExpectedCondition<?> unmetExpectedCondition :
+				((BatchedExpectedCondition) expectedCondition).getUnmetExpectedConditions()) {
+				documentCondition = documentCondition && isDocumentCondition(unmetExpectedCondition);
+			}
+		}
+
+		return documentCondition;
 	}
 
 	@Override
@@ -98,6 +305,7 @@ public class BrowserDriverImpl implements BrowserDriver {
 
 		WebDriver webDriver = getWebDriver();
 		webDriver.switchTo().alert().accept();
+		recordBrowserState("acceptAlert()");
 	}
 
 	@Override
@@ -127,69 +335,88 @@ public class BrowserDriverImpl implements BrowserDriver {
 		buf.append(getBrowserName());
 		buf.append("_");
 
-		SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd_HH:mm:ss.SSS", Locale.ENGLISH);
-		simpleDateFormat.setTimeZone(TimeZone.getDefault());
-
-		String dateString = simpleDateFormat.format(new Date());
+		long captureTimeInMillis = System.currentTimeMillis();
+		LocalDateTime captureTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(captureTimeInMillis),
+				ZoneId.systemDefault());
+		String dateString = CAPTURED_BROWSER_STATE_DATE_TIME_FORMATTER.format(captureTime);
 		buf.append(dateString);
 
 		String fileName = buf.toString();
-		String htmlFileName = fileName + ".html";
-		PrintWriter printWriter = null;
+		String url = getCurrentWindowUrl();
+		String markup = null;
 
-		try {
+		// Stream the markup straight to its file (rather than holding it in memory until it is written) unless the
+		// capture is written later or the markup must be hashed or archived first.
+		if (!CAPTURED_BROWSER_STATE_ASYNC && CapturedBrowserStateWriter.isMarkupStreamable()) {
 
-			printWriter = new PrintWriter(htmlFileName, "UTF-8");
+			String htmlFileName = fileName + ".html";
+			OutputStream outputStream = null;
 
-			String currentPageState = getCurrentDocumentMarkup();
-			printWriter.write(currentPageState);
-		}
-		catch (Exception e) {
+			try {
 
-			logger.error("Unable to write page source to {} due to the following exception:\n", htmlFileName);
-			logger.error("", e);
-		}
-		finally {
-			ClosableUtil.close(printWriter);
+				outputStream = Files.newOutputStream(Paths.get(htmlFileName));
+				writeCurrentDocumentMarkup(outputStream);
+				logger.info("The html of url=\"{}\" has been written to {}", url, htmlFileName);
+			}
+			catch (Exception e) {
+
+				logger.error("Unable to write page source to {} due to the following exception:\n", htmlFileName);
+				logger.error("", e);
+			}
+			finally {
+				ClosableUtil.close(outputStream);
+			}
 		}
+		else {
+
+			try {
+				markup = getCurrentDocumentMarkup();
+			}
+			catch (Exception e) {
 
-		String currentUrl = getCurrentWindowUrl();
-		logger.info("The html of url=\"{}\" has been written to {}", currentUrl, htmlFileName);
+				logger.error("Unable to get page source for {} due to the following exception:\n", fileName);
+				logger.error("", e);
+			}
+		}
 
+		byte[] screenshotBytes = null;
+		Rectangle screenshotCropRegion = null;
 		WebDriver webDriver = getWebDriver();
 
 		if (webDriver instanceof TakesScreenshot) {
 
 			TakesScreenshot takesScreenshot = (TakesScreenshot) webDriver;
-			byte[] screenshotBytes = takesScreenshot.getScreenshotAs(OutputType.BYTES);
-			String screenshotFileName = fileName + ".png";
-			FileOutputStream fileOutputStream = null;
+			screenshotBytes = takesScreenshot.getScreenshotAs(OutputType.BYTES);
 
-			try {
-
-				fileOutputStream = new FileOutputStream(screenshotFileName);
-				fileOutputStream.write(screenshotBytes);
+			if (SCREENSHOT_CROP_XPATH != null) {
+				screenshotCropRegion = getScreenshotCropRegion(SCREENSHOT_CROP_XPATH);
 			}
-			catch (Exception e) {
+		}
 
-				logger.error("Unable to write page source to {} due to the following exception:\n", screenshotFileName);
-				logger.error("", e);
-			}
-			finally {
-				ClosableUtil.close(fileOutputStream);
-			}
+		CapturedBrowserState capturedBrowserState = new CapturedBrowserState(captureTimeInMillis, fileName, url,
+				markup, screenshotBytes, screenshotCropRegion);
+		Consumer<CapturedBrowserState> capturedBrowserStateWriter;
 
-			logger.info("A screenshot of url=\"{}\" has been saved to {}", currentUrl, screenshotFileName);
+		if (CAPTURED_BROWSER_STATE_ASYNC) {
+			capturedBrowserStateWriter = CapturedBrowserStateWriter.getInstance()::submit;
+		}
+		else {
+			capturedBrowserStateWriter = CapturedBrowserStateWriter::write;
+		}
+
+		// Decoding, scaling and encoding a screenshot can take longer than the rest of the capture, so it is done off
+		// the test thread.
+		if (CapturedScreenshotEncoder.isEncodingRequired(capturedBrowserState)) {
+			CapturedScreenshotEncoder.getInstance().submit(capturedBrowserState, capturedBrowserStateWriter);
+		}
+		else {
+			capturedBrowserStateWriter.accept(capturedBrowserState);
 		}
 	}
 
 	@Override
 	public void centerElementInCurrentWindow(String elementXpath) {
-
-		// http://stackoverflow.com/questions/8922107/javascript-scrollintoview-middle-alignment#36499256
-		executeScriptInCurrentWindow(
-				"window.scrollTo(0, (arguments[0].getBoundingClientRect().top + window.pageYOffset) - (window.innerHeight / 2));",
-				findElementByXpath(elementXpath));
+		centerElement("centerElementInCurrentWindow", elementXpath, CENTER_ELEMENT_SCRIPT);
 	}
 
 	@Override
@@ -202,29 +429,26 @@ public class BrowserDriverImpl implements BrowserDriver {
 	@Override
 	public void clearElement(String elementXpath) {
 
-		centerElementInCurrentWindow(elementXpath);
-
-		WebElement element = findElementByXpath(elementXpath);
-		String value = element.getAttribute("value");
+		installSettledExpectedConditionTrackers();
 
-		if ((value != null) && !value.equals("")) {
+		List<?> elementAndCleared = (List<?>) centerElement("clearElement", elementXpath,
+				CENTER_AND_CLEAR_ELEMENT_SCRIPT);
 
-			CharSequence[] clearKeys = new CharSequence[value.length()];
+		if (!Boolean.TRUE.equals(elementAndCleared.get(1))) {
 
-			for (int i = 0; i < value.length(); i++) {
-				clearKeys[i] = Keys.BACK_SPACE;
-			}
-
-			sendKeysToElement(elementXpath, Keys.END);
-			sendKeysToElement(elementXpath, clearKeys);
+			logger.debug("Unable to clear element {} via JavaScript. Clearing it with keystrokes instead.",
+				elementXpath);
+			clearElementWithKeystrokes(elementXpath);
 		}
+
+		recordBrowserState("clearElement(" + elementXpath + ")");
 	}
 
 	@Override
 	public void clickElement(String elementXpath) {
 
-		centerElementInCurrentWindow(elementXpath);
-		findElementByXpath(elementXpath).click();
+		actOnCenteredElement("clickElement", elementXpath, WebElement::click);
+		recordBrowserState("clickElement(" + elementXpath + ")");
 	}
 
 	@Override
@@ -250,15 +474,11 @@ public class BrowserDriverImpl implements BrowserDriver {
 	@Override
 	public Actions createActions(String elementXpath) {
 
-		if (windowHeight == null) {
-			Long windowHeightLong = (Long) executeScriptInCurrentWindow(
-					"return document.documentElement.clientHeight || window.innerHeight;");
-			windowHeight = windowHeightLong.intValue();
-		}
-
-		WebElement webElement = findElementByXpath(elementXpath);
-		Dimension elementSize = webElement.getSize();
-		int elementHeight = elementSize.getHeight();
+		List<?> elementAndHeights = (List<?>) centerElement("createActions", elementXpath,
+				CENTER_ELEMENT_AND_GET_HEIGHTS_SCRIPT);
+		WebElement webElement = (WebElement) elementAndHeights.get(0);
+		int elementHeight = ((Number) elementAndHeights.get(1)).intValue();
+		int windowHeight = ((Number) elementAndHeights.get(2)).intValue();
 		Actions actions = createActions();
 
 		return actions.moveToElement(webElement, 0, -(windowHeight / 2) + (elementHeight / 2));
@@ -266,40 +486,45 @@ public class BrowserDriverImpl implements BrowserDriver {
 
 	@Override
 	public Action createClickElementAction(String elementXpath) {
-		WebElement webElement = findElementByXpath(elementXpath);
 
-		try {
-			((JavascriptExecutor) webDriver).executeScript(
-					"arguments[0].scrollIntoView({block: 'center'});", webElement);
+		WebElement webElement;
 
-			Rectangle rect = webElement.getRect();
-			Dimension dimension = webDriver.manage().window().getSize();
+		try {
 
-			boolean isVerticallyVisible = rect.getY() >= 0 && rect.getY() + rect.getHeight() <= dimension.getHeight();
-			boolean isHorizontallyVisible = rect.getX() >= 0 && rect.getX() + rect.getWidth() <= dimension.getWidth();
+			// Locate the element, scroll it into view, and check whether it is inside the viewport in one command.
+			List<?> elementAndVisibility = (List<?>) centerElement("createClickElementAction", elementXpath,
+					CENTER_ELEMENT_AND_GET_VISIBILITY_SCRIPT);
+			webElement = (WebElement) elementAndVisibility.get(0);
 
-			if (isVerticallyVisible && isHorizontallyVisible) {
+			if (Boolean.TRUE.equals(elementAndVisibility.get(1))) {
 				return new Actions(webDriver).moveToElement(webElement).click().build();
 			}
 			else {
 				logger.debug("Element is near or out of viewport bounds — JS click fallback will be used");
 			}
 		}
+		catch (NoSuchElementException e) {
+			throw e;
+		}
 		catch (Exception e) {
+
 			logger.error("Viewport detection failed — JS click fallback will be used: {}", e.getMessage());
+			webElement = findElementByXpath(elementXpath);
 		}
 
+		final WebElement fallbackWebElement = webElement;
+
 		// JS fallback wrapped in an Action-like interface
 		return () -> {
 			// Try to focus first, which may help fire blur/change events
-			((JavascriptExecutor) webDriver).executeScript("arguments[0].focus();", webElement);
+			((JavascriptExecutor) webDriver).executeScript("arguments[0].focus();", fallbackWebElement);
 			try {
 				Thread.sleep(100); // small pause to simulate human delay
 			}
 			catch (InterruptedException e) {
 				throw new RuntimeException(e);
 			}
-			((JavascriptExecutor) webDriver).executeScript("arguments[0].click();", webElement);
+			((JavascriptExecutor) webDriver).executeScript("arguments[0].click();", fallbackWebElement);
 		};
 	}
 
@@ -308,6 +533,7 @@ public class BrowserDriverImpl implements BrowserDriver {
 
 		WebDriver webDriver = getWebDriver();
 		webDriver.switchTo().alert().dismiss();
+		recordBrowserState("dismissAlert()");
 	}
 
 	@Override
@@ -326,6 +552,19 @@ public class BrowserDriverImpl implements BrowserDriver {
 		}
 	}
 
+	@Override
+	public void exportStorageState(String filePath) throws IOException {
+
+		String origin = (String) executeScriptInCurrentWindow("return window.location.origin;");
+		Set<Cookie> cookies = getBrowserCookies();
+		Map<String, String> localStorage = getStorage("localStorage");
+		Map<String, String> sessionStorage = getStorage("sessionStorage");
+		StorageState storageState = new StorageState(origin, cookies, localStorage, sessionStorage);
+		Path path = Paths.get(filePath);
+		storageState.write(path);
+		logger.info("The storage state of origin=\"{}\" has been exported to {}", origin, filePath);
+	}
+
 	@Override
 	public WebElement findElementByXpath(String elementXpath) {
 
@@ -342,6 +581,64 @@ public class BrowserDriverImpl implements BrowserDriver {
 		return webDriver.findElements(By.xpath(elementXpath));
 	}
 
+	@Override
+	public Map<String, List<WebElement>> findElementsByXpaths(Collection<String> elementXpaths) {
+
+		List<String> uniqueElementXpaths = new ArrayList<String>(new LinkedHashSet<String>(elementXpaths));
+		Map<String, List<WebElement>> elementsByXpath = new LinkedHashMap<String, List<WebElement>>();
+
+		if (uniqueElementXpaths.isEmpty()) {
+			return elementsByXpath;
+		}
+
+		List<?> results = null;
+
+		if (getWebDriver() instanceof JavascriptExecutor) {
+
+			try {
+
+				countCommands("findElementsByXpaths", 1);
+				results = (List<?>) executeScriptInCurrentWindow(FIND_ELEMENTS_BY_XPATHS_SCRIPT, uniqueElementXpaths);
+			}
+			catch (WebDriverException e) {
+				logger.debug("Unable to find elements by xpaths via JavaScript. Finding them one at a time instead.",
+					e);
+			}
+		}
+
+		for (int i = 0; i < uniqueElementXpaths.size(); i++) {
+
+			String elementXpath = uniqueElementXpaths.get(i);
+			List<WebElement> webElements;
+
+			if (results != null) {
+
+				webElements = new ArrayList<WebElement>();
+
+				for (Object result : (List<?>) results.get(i)) {
+					webElements.add((WebElement) result);
+				}
+			}
+			else {
+
+				countCommands("findElementsByXpaths", 1);
+				webElements = findElementsByXpath(elementXpath);
+			}
+
+			elementsByXpath.put(elementXpath, webElements);
+		}
+
+		return elementsByXpath;
+	}
+
+	/**
+	 * Returns the number of browser commands issued by the BrowserDriver methods which locate, center, and act on an
+	 * element, keyed by method name.
+	 */
+	public Map<String, Long> getCommandCounts() {
+		return Collections.unmodifiableMap(commandCounts);
+	}
+
 	@Override
 	public Set<Cookie> getBrowserCookies() {
 
@@ -370,15 +667,8 @@ public class BrowserDriverImpl implements BrowserDriver {
 	public String getCurrentDocumentMarkup() {
 
 		WebElement documentElement = findElementByXpath("/html");
-		String outerHTMLAttrName = "outerHTML";
-		String browserName = getBrowserName();
 
-		// https://github.com/SeleniumHQ/htmlunit-driver/issues/45
-		if ("htmlunit".equals(browserName)) {
-			outerHTMLAttrName = "innerHTML";
-		}
-
-		return documentElement.getAttribute(outerHTMLAttrName);
+		return documentElement.getAttribute(getDocumentMarkupAttributeName());
 	}
 
 	@Override
@@ -409,6 +699,31 @@ public class BrowserDriverImpl implements BrowserDriver {
 		return webDriver.getWindowHandles();
 	}
 
+	@Override
+	public void importStorageState(String filePath) throws IOException {
+
+		Path path = Paths.get(filePath);
+		StorageState storageState = StorageState.read(path);
+		String origin = storageState.getOrigin();
+
+		// Cookies and storage can only be set for the origin of the current page.
+		navigateWindowTo(origin + "/");
+		clearBrowserCookies();
+
+		for (Cookie storedCookie : storageState.getCookies()) {
+
+			// Omit the domain so that the cookie is added as a host-only cookie for the current page.
+			Cookie cookie = new Cookie.Builder(storedCookie.getName(), storedCookie.getValue()).path(
+					storedCookie.getPath()).expiresOn(storedCookie.getExpiry()).isSecure(storedCookie.isSecure())
+				.isHttpOnly(storedCookie.isHttpOnly()).build();
+			addBrowserCookie(cookie);
+		}
+
+		executeScriptInCurrentWindow(SET_STORAGE_SCRIPT, "localStorage", storageState.getLocalStorage());
+		executeScriptInCurrentWindow(SET_STORAGE_SCRIPT, "sessionStorage", storageState.getSessionStorage());
+		logger.info("The storage state of origin=\"{}\" has been imported from {}", origin, filePath);
+	}
+
 	@Override
 	public boolean isBrowserHeadless() {
 		return browserHeadless;
@@ -440,31 +755,63 @@ public class BrowserDriverImpl implements BrowserDriver {
 
 		WebDriver webDriver = getWebDriver();
 		webDriver.get(url);
+		installSettledExpectedConditionTrackers();
+		recordBrowserState("navigateWindowTo(" + url + ")");
 	}
 
 	@Override
 	public void performAndWaitForRerender(Action action, String rerenderXpath) {
 
 		WebElement rerenderElement = findElementByXpath(rerenderXpath);
+		WebDriver webDriver = getWebDriver();
+		Long ajaxRequestsBegun = null;
+
+		if ("ajax".equals(RERENDER_MODE) && (webDriver instanceof JavascriptExecutor)) {
+			ajaxRequestsBegun = AjaxRerenderCompleted.installAjaxRequestTracker((JavascriptExecutor) webDriver);
+		}
+
+		installSettledExpectedConditionTrackers();
 		action.perform();
-		logger.info("Waiting for element {} to be stale.", rerenderXpath);
-		waitFor(ExpectedConditions.stalenessOf(rerenderElement));
-		logger.info("Element {} is stale.", rerenderXpath);
+
+		if (ajaxRequestsBegun != null) {
+
+			logger.info("Waiting for Ajax requests to complete and element {} to be rerendered.", rerenderXpath);
+			waitFor(new AjaxRerenderCompleted(rerenderElement, ajaxRequestsBegun));
+			logger.info("Ajax requests are complete and element {} is rerendered.", rerenderXpath);
+		}
+		else {
+
+			logger.info("Waiting for element {} to be stale.", rerenderXpath);
+			waitFor(BrowserSideCondition.elementStale(rerenderElement));
+			logger.info("Element {} is stale.", rerenderXpath);
+		}
+
 		waitForElementDisplayed(rerenderXpath);
+		recordBrowserState("performAndWaitForRerender(" + rerenderXpath + ")");
 	}
 
 	@Override
 	public void quit() {
 
+		logger.debug("Command counts={}", commandCounts);
+
 		WebDriver webDriver = getWebDriver();
 		webDriver.quit();
 	}
 
+	@Override
+	public void reset() {
+
+		BrowserDriver.super.reset();
+	}
+
 	@Override
 	public void sendKeysToElement(String elementXpath, CharSequence... keys) {
 
-		centerElementInCurrentWindow(elementXpath);
-		findElementByXpath(elementXpath).sendKeys(keys);
+		actOnCenteredElement("sendKeysToElement", elementXpath, webElement -> webElement.sendKeys(keys));
+
+		// The keys are not recorded since they may be a password.
+		recordBrowserState("sendKeysToElement(" + elementXpath + ")");
 	}
 
 	@Override
@@ -477,8 +824,7 @@ public class BrowserDriverImpl implements BrowserDriver {
 	@Override
 	public void setWaitTimeOut(int waitTimeOutInSeconds) {
 
-		WebDriver webDriver = getWebDriver();
-		webDriverWait = new WebDriverWait(webDriver, waitTimeOutInSeconds);
+		this.waitTimeOutInSeconds = waitTimeOutInSeconds;
 	}
 
 	@Override
@@ -487,6 +833,7 @@ public class BrowserDriverImpl implements BrowserDriver {
 		WebElement webElement = findElementByXpath(iframeXpath);
 		WebDriver webDriver = getWebDriver();
 		webDriver.switchTo().frame(webElement);
+		recordBrowserState("switchToFrame(" + iframeXpath + ")");
 	}
 
 	@Override
@@ -494,18 +841,67 @@ public class BrowserDriverImpl implements BrowserDriver {
 
 		WebDriver webDriver = getWebDriver();
 		webDriver.switchTo().window(windowId);
+		recordBrowserState("switchToWindow(" + windowId + ")");
 	}
 
 	@Override
 	public void waitFor(ExpectedCondition expectedCondition) {
-		webDriverWait.until(expectedCondition);
+
+		long waitTimeOutInMillis = TimeUnit.SECONDS.toMillis(waitTimeOutInSeconds);
+		String calibrationKey = getCalibrationKey(expectedCondition);
+		boolean calibrated = false;
+
+		if (calibrationKey != null) {
+
+			long calibratedTimeOutInMillis = WaitCalibrationStore.getInstance().getTimeOutInMillis(calibrationKey,
+					waitTimeOutInMillis);
+			calibrated = calibratedTimeOutInMillis < waitTimeOutInMillis;
+			waitTimeOutInMillis = calibratedTimeOutInMillis;
+		}
+
+		// Limit the wait to the remaining time budget of the current test (if any).
+		long remainingTimeBudgetInMillis = TestTimeBudget.getRemainingTimeInMillis();
+		boolean timeBudgeted = remainingTimeBudgetInMillis < waitTimeOutInMillis;
+		long timeOutInMillis = Math.max(0, Math.min(waitTimeOutInMillis, remainingTimeBudgetInMillis));
+		long startTime = System.nanoTime();
+		TimeoutException timeoutException = null;
+
+		try {
+			waitFor(expectedCondition, timeOutInMillis);
+		}
+		catch (TimeoutException e) {
+			timeoutException = e;
+		}
+
+		long waitTimeInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+		TestTimeBudget.recordWait(String.valueOf(expectedCondition), waitTimeInMillis);
+
+		if (timeoutException != null) {
+
+			if (timeBudgeted) {
+				throw new TimeoutException(TestTimeBudget.getBreakdown(), timeoutException);
+			}
+
+			if (calibrated) {
+				throw new TimeoutException("Timed out after the calibrated time out of " + waitTimeOutInMillis +
+					"ms (the configured time out is " + waitTimeOutInSeconds + "s). Set " +
+					"\"integration.browser.driver.wait.calibration\" to false to disable wait calibration.",
+					timeoutException);
+			}
+
+			throw timeoutException;
+		}
+
+		if (calibrationKey != null) {
+			WaitCalibrationStore.getInstance().recordWait(calibrationKey, waitTimeInMillis);
+		}
 	}
 
 	@Override
 	public void waitForElementDisplayed(String elementXpath) {
 
 		logger.info("Waiting for element {} to be displayed.", elementXpath);
-		waitFor(ExpectedConditions.visibilityOfElementLocated(By.xpath(elementXpath)));
+		waitFor(BrowserSideCondition.elementDisplayed(elementXpath));
 		logger.info("Element {} is displayed.", elementXpath);
 	}
 
@@ -519,9 +915,8 @@ public class BrowserDriverImpl implements BrowserDriver {
 
 		logger.info("Waiting for element {} to be enabled.", elementXpath);
 
-		By byXpath = By.xpath(elementXpath);
 		ExpectedCondition<?> expectedCondition = ExpectedConditionsUtil.ifNecessaryExpectElementDisplayed(
-				new ElementEnabled(elementXpath), elementMustBeDisplayed, byXpath);
+				BrowserSideCondition.elementEnabled(elementXpath), elementMustBeDisplayed, elementXpath);
 		waitFor(expectedCondition);
 		logger.info("Element {} is enabled.", elementXpath);
 	}
@@ -530,7 +925,7 @@ public class BrowserDriverImpl implements BrowserDriver {
 	public void waitForElementNotDisplayed(String elementXpath) {
 
 		logger.info("Waiting for element {} not to be displayed.", elementXpath);
-		waitFor(ExpectedConditions.invisibilityOfElementLocated(By.xpath(elementXpath)));
+		waitFor(BrowserSideCondition.elementNotDisplayed(elementXpath));
 		logger.info("Element {} is not displayed.", elementXpath);
 	}
 
@@ -544,11 +939,450 @@ public class BrowserDriverImpl implements BrowserDriver {
 
 		logger.info("Waiting for text \"{}\" to be present in element {}.", text, elementXpath);
 
-		By byXpath = By.xpath(elementXpath);
-		ExpectedCondition<?> expectedCondition = ExpectedConditions.textToBePresentInElementLocated(byXpath, text);
-		expectedCondition = ExpectedConditionsUtil.ifNecessaryExpectElementDisplayed(expectedCondition,
-				elementMustBeDisplayed, byXpath);
+		ExpectedCondition<?> expectedCondition = ExpectedConditionsUtil.ifNecessaryExpectElementDisplayed(
+				BrowserSideCondition.textPresentInElement(text, elementXpath), elementMustBeDisplayed, elementXpath);
 		waitFor(expectedCondition);
 		logger.info("Text \"{}\" is present in Element {}.", text, elementXpath);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Stores the markup in a variable of the current window and transfers it in chunks of about one million characters
+	 * so that the markup is never held in memory in its entirety. Falls back to {@link #getCurrentDocumentMarkup()} if
+	 * the browser does not support JavaScript.
+	 */
+	@Override
+	public void writeCurrentDocumentMarkup(OutputStream outputStream) throws IOException {
+
+		Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+		WebDriver webDriver = getWebDriver();
+		long markupLength = -1;
+
+		if (webDriver instanceof JavascriptExecutor) {
+
+			try {
+
+				JavascriptExecutor javascriptExecutor = (JavascriptExecutor) webDriver;
+				markupLength = ((Number) javascriptExecutor.executeScript(STORE_DOCUMENT_MARKUP_SCRIPT,
+							getDocumentMarkupAttributeName())).longValue();
+			}
+			catch (WebDriverException | UnsupportedOperationException e) {
+				logger.debug("Unable to store the document markup via JavaScript: {}", e.getMessage());
+			}
+		}
+
+		if (markupLength < 0) {
+			writer.write(getCurrentDocumentMarkup());
+		}
+		else {
+
+			JavascriptExecutor javascriptExecutor = (JavascriptExecutor) webDriver;
+			int commandCount = 2;
+
+			try {
+
+				// The script may shorten a chunk by one character to avoid splitting a surrogate pair, so the next
+				// chunk starts where the previous chunk actually ended.
+				long i = 0;
+
+				while (i < markupLength) {
+
+					String chunk = (String) javascriptExecutor.executeScript(GET_DOCUMENT_MARKUP_CHUNK_SCRIPT, i,
+							Math.min(markupLength, i + DOCUMENT_MARKUP_CHUNK_SIZE));
+					commandCount++;
+
+					if (chunk.isEmpty()) {
+						throw new IOException("The document markup changed while it was being transferred.");
+					}
+
+					writer.write(chunk);
+					i += chunk.length();
+				}
+			}
+			finally {
+
+				javascriptExecutor.executeScript(REMOVE_DOCUMENT_MARKUP_SCRIPT);
+				countCommands("writeCurrentDocumentMarkup", commandCount);
+			}
+		}
+
+		writer.flush();
+	}
+
+	/**
+	 * Centers the element in the current window and performs the native action on it. If the element becomes stale
+	 * before the action is performed, the element is located and centered again and the action is retried once.
+	 */
+	private void actOnCenteredElement(String methodName, String elementXpath, Consumer<WebElement> action) {
+
+		installSettledExpectedConditionTrackers();
+
+		WebElement webElement = (WebElement) centerElement(methodName, elementXpath, CENTER_ELEMENT_SCRIPT);
+		countCommands(methodName, 1);
+
+		try {
+			action.accept(webElement);
+		}
+		catch (StaleElementReferenceException e) {
+
+			webElement = (WebElement) centerElement(methodName, elementXpath, CENTER_ELEMENT_SCRIPT);
+			countCommands(methodName, 1);
+			action.accept(webElement);
+		}
+	}
+
+	/**
+	 * Executes one of the CENTER_ELEMENT scripts, which locate the element, center it in the current window, and return
+	 * the element (and potentially its geometry) in a single command.
+	 */
+	private Object centerElement(String methodName, String elementXpath, String centerElementScript) {
+
+		countCommands(methodName, 1);
+
+		Object result = executeScriptInCurrentWindow(centerElementScript, elementXpath);
+
+		if (result == null) {
+			throw new NoSuchElementException("Unable to locate element with xpath: " + elementXpath);
+		}
+
+		return result;
+	}
+
+	private void clearElementWithKeystrokes(String elementXpath) {
+
+		centerElementInCurrentWindow(elementXpath);
+
+		WebElement element = findElementByXpath(elementXpath);
+		String value = element.getAttribute("value");
+
+		if ((value != null) && !value.equals("")) {
+
+			CharSequence[] clearKeys = new CharSequence[value.length()];
+
+			for (int i = 0; i < value.length(); i++) {
+				clearKeys[i] = Keys.BACK_SPACE;
+			}
+
+			sendKeysToElement(elementXpath, Keys.END);
+			sendKeysToElement(elementXpath, clearKeys);
+		}
+	}
+
+	private AdaptivePollingWait createWait(long timeOutInMillis) {
+
+		WebDriver webDriver = getWebDriver();
+
+		return new AdaptivePollingWait(webDriver, timeOutInMillis,
+				TestUtil.getBrowserDriverInitialPollingInterval(), TestUtil.getBrowserDriverPollingIntervalMultiplier(),
+				TestUtil.getBrowserDriverMaxPollingInterval());
+	}
+
+	private void countCommands(String methodName, int commandCount) {
+		commandCounts.merge(methodName, (long) commandCount, Long::sum);
+	}
+
+	/**
+	 * Returns the key under which the durations of waits for the condition are calibrated or null if the condition
+	 * should not be calibrated. Conditions which refer to a specific element (such as {@link
+	 * org.openqa.selenium.support.ui.ExpectedConditions#stalenessOf(WebElement)}) are not calibrated since the
+	 * element's description (which includes the browser session) differs between test runs.
+	 */
+	private String getCalibrationKey(ExpectedCondition<?> expectedCondition) {
+
+		String calibrationKey = null;
+
+		if (WAIT_CALIBRATION && !(expectedCondition instanceof AjaxRerenderCompleted) &&
+				!isBoundToBrowserSession(expectedCondition)) {
+
+			String conditionDescription = String.valueOf(expectedCondition);
+
+			if (WaitCalibrationStore.isCalibratable(conditionDescription)) {
+				calibrationKey = conditionDescription;
+			}
+		}
+
+		return calibrationKey;
+	}
+
+	private String getDocumentMarkupAttributeName() {
+
+		String outerHTMLAttrName = "outerHTML";
+		String browserName = getBrowserName();
+
+		// https://github.com/SeleniumHQ/htmlunit-driver/issues/45
+		if ("htmlunit".equals(browserName)) {
+			outerHTMLAttrName = "innerHTML";
+		}
+
+		return outerHTMLAttrName;
+	}
+
+	/**
+	 * Returns the bounds (in screenshot pixels) of the element or null if the element does not exist or its bounds
+	 * could not be obtained (in which case the screenshot is not cropped).
+	 */
+	private Rectangle getScreenshotCropRegion(String elementXpath) {
+
+		Rectangle screenshotCropRegion = null;
+
+		try {
+
+			List<?> bounds = (List<?>) executeScriptInCurrentWindow(GET_SCREENSHOT_CROP_REGION_SCRIPT, elementXpath);
+
+			if (bounds != null) {
+				screenshotCropRegion = new Rectangle(((Number) bounds.get(0)).intValue(),
+						((Number) bounds.get(1)).intValue(), ((Number) bounds.get(2)).intValue(),
+						((Number) bounds.get(3)).intValue());
+			}
+			else {
+				logger.warn("Unable to crop the screenshot to {} because the element does not exist.", elementXpath);
+			}
+		}
+		catch (WebDriverException e) {
+
+			logger.error("Unable to get the bounds of {} due to the following exception:\n", elementXpath);
+			logger.error("", e);
+		}
+
+		return screenshotCropRegion;
+	}
+
+	private Map<String, String> getStorage(String storageName) {
+
+		Map<?, ?> items = (Map<?, ?>) executeScriptInCurrentWindow(GET_STORAGE_SCRIPT, storageName);
+		Map<String, String> storage = new HashMap<String, String>();
+
+		for (Map.Entry<?, ?> item : items.entrySet()) {
+			storage.put(String.valueOf(item.getKey()), String.valueOf(item.getValue()));
+		}
+
+		return storage;
+	}
+
+	/**
+	 * Installs the trackers of {@link SettledExpectedCondition} before an action so that negative assertions about the
+	 * action's effects observe every DOM mutation and Ajax request caused by the action.
+	 */
+	private void installSettledExpectedConditionTrackers() {
+
+		WebDriver webDriver = getWebDriver();
+
+		if ((TestUtil.getNegativeAssertionSettleTime() > 0) && (webDriver instanceof JavascriptExecutor) &&
+				!(webDriver instanceof HtmlUnitDriver)) {
+
+			countCommands("installSettledExpectedConditionTrackers", 2);
+			SettledExpectedCondition.installTrackers((JavascriptExecutor) webDriver);
+		}
+	}
+
+	private boolean isMet(ExpectedCondition<?> expectedCondition) {
+
+		boolean met = false;
+
+		try {
+
+			Object result = expectedCondition.apply(getWebDriver());
+			met = (result != null) && !Boolean.FALSE.equals(result);
+		}
+		catch (NotFoundException | StaleElementReferenceException e) {
+			// Do nothing.
+		}
+
+		return met;
+	}
+
+	private boolean isMutationObserverWaitEngineSupported() {
+
+		WebDriver webDriver = getWebDriver();
+
+		return "mutation-observer".equals(WAIT_ENGINE) && (webDriver instanceof JavascriptExecutor) &&
+			!(webDriver instanceof HtmlUnitDriver) && !(webDriver instanceof JBrowserDriver);
+	}
+
+	private void recordBrowserState(String actionDescription) {
+
+		if (BrowserStateHistory.isRecording()) {
+
+			String url = null;
+			String markup = null;
+
+			try {
+
+				url = getCurrentWindowUrl();
+
+				if (BrowserStateHistory.isRecordingMarkup()) {
+					markup = getCurrentDocumentMarkup();
+				}
+			}
+			catch (WebDriverException e) {
+
+				// For example, an alert may be open.
+				logger.debug("Unable to record the browser state after {}: {}", actionDescription, e.getMessage());
+			}
+
+			BrowserStateHistory.record(actionDescription, url, markup);
+		}
+	}
+
+	private void waitFor(ExpectedCondition<?> expectedCondition, long timeOutInMillis) {
+
+		WebDriver webDriver = getWebDriver();
+
+		try {
+
+			if ((expectedCondition instanceof BrowserSideCondition) && isMutationObserverWaitEngineSupported()) {
+				waitForMutation((BrowserSideCondition) expectedCondition, timeOutInMillis);
+			}
+			else if (HTMLUNIT_BACKGROUND_JAVASCRIPT_WAIT && (webDriver instanceof HtmlUnitDriverLiferayFacesImpl) &&
+					isDocumentCondition(expectedCondition)) {
+				waitForBackgroundJavaScript(expectedCondition, timeOutInMillis);
+			}
+			else {
+				createWait(timeOutInMillis).until(expectedCondition);
+			}
+		}
+		catch (TimeoutException e) {
+
+			// Since the browser side predicate only approximates the Selenium condition, make sure that the Selenium
+			// condition is really not met before failing.
+			if (expectedCondition instanceof BatchedExpectedCondition) {
+
+				BatchedExpectedCondition batchedExpectedCondition = (BatchedExpectedCondition) expectedCondition;
+				List<ExpectedCondition<?>> unmetExpectedConditions = new ArrayList<ExpectedCondition<?>>(
+						batchedExpectedCondition.getUnmetExpectedConditions());
+
+				if (!batchedExpectedCondition.applyExpectedConditions(webDriver)) {
+					throw e;
+				}
+
+				logger.warn("The browser side predicates of {} were not met even though the conditions were met.",
+					unmetExpectedConditions);
+
+				return;
+			}
+
+			if (!(expectedCondition instanceof BrowserSideCondition) ||
+					!isMet(((BrowserSideCondition) expectedCondition).getExpectedCondition())) {
+				throw e;
+			}
+
+			logger.warn("The browser side predicate of {} was not met even though the condition was met.",
+				expectedCondition);
+		}
+	}
+
+	/**
+	 * Waits for the condition by waiting for HtmlUnit's background JavaScript jobs rather than by polling the DOM.
+	 * Since HtmlUnit only changes the DOM while loading a page or running JavaScript, a document condition (see {@link
+	 * #isDocumentCondition(ExpectedCondition)}) cannot be met once no jobs are pending, so the condition is checked
+	 * one last time and a {@link org.openqa.selenium.TimeoutException} is thrown if it is not met (without waiting for
+	 * the rest of the time out). Jobs which never complete (for example <code>setInterval()</code> timers) are waited
+	 * for in short slices so that the condition is still checked periodically.
+	 */
+	private void waitForBackgroundJavaScript(ExpectedCondition<?> expectedCondition, long timeOutInMillis) {
+
+		HtmlUnitDriverLiferayFacesImpl htmlUnitDriverLiferayFacesImpl = (HtmlUnitDriverLiferayFacesImpl)
+			getWebDriver();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeOutInMillis);
+		long maxPollingInterval = TestUtil.getBrowserDriverMaxPollingInterval();
+
+		while (true) {
+
+			try {
+
+				Object result = expectedCondition.apply(htmlUnitDriverLiferayFacesImpl);
+
+				if ((result != null) && !Boolean.FALSE.equals(result)) {
+					return;
+				}
+			}
+			catch (NotFoundException e) {
+				// Do nothing.
+			}
+
+			long remainingTimeInMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+			if (remainingTimeInMillis <= 0) {
+				break;
+			}
+
+			int pendingJobs = htmlUnitDriverLiferayFacesImpl.waitForBackgroundJavaScript(Math.min(
+						remainingTimeInMillis, maxPollingInterval));
+
+			if (pendingJobs == 0) {
+
+				logger.debug("No background JavaScript is pending while waiting for {}.", expectedCondition);
+
+				break;
+			}
+		}
+
+		// Check the condition one last time and throw the same TimeoutException that polling would throw.
+		createWait(0).until(expectedCondition);
+	}
+
+	/**
+	 * Waits for the condition by blocking inside the browser until a DOM mutation makes the condition's predicate true
+	 * (or a short time slice elapses) and then confirming the condition with Selenium. If the condition is not met
+	 * within the wait time out, the same {@link org.openqa.selenium.TimeoutException} that polling would throw is
+	 * thrown. If the script fails, the condition is polled for the rest of the wait.
+	 */
+	private void waitForMutation(BrowserSideCondition browserSideCondition, long timeOutInMillis) {
+
+		WebDriver webDriver = getWebDriver();
+
+		if (!scriptTimeOutSet) {
+
+			webDriver.manage().timeouts().setScriptTimeout(MUTATION_OBSERVER_WAIT_SLICE_IN_MILLIS + 5000,
+				TimeUnit.MILLISECONDS);
+			scriptTimeOutSet = true;
+		}
+
+		String script = "var element = arguments[0], timeOut = arguments[1], " +
+			"callback = arguments[arguments.length - 1];" + BrowserSideCondition.PREDICATE_FUNCTIONS +
+			"function predicate() { try { return !!(" + browserSideCondition.getPredicate() +
+			"); } catch (e) { return false; } }" + MUTATION_OBSERVER_WAIT_SCRIPT;
+		JavascriptExecutor javascriptExecutor = (JavascriptExecutor) webDriver;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeOutInMillis);
+
+		while (true) {
+
+			try {
+
+				Object result = browserSideCondition.apply(webDriver);
+
+				if ((result != null) && !Boolean.FALSE.equals(result)) {
+					return;
+				}
+			}
+			catch (NotFoundException | StaleElementReferenceException e) {
+				// Do nothing.
+			}
+
+			long remainingTimeInMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+
+			if (remainingTimeInMillis <= 0) {
+				break;
+			}
+
+			try {
+				javascriptExecutor.executeAsyncScript(script, browserSideCondition.getWebElement(),
+					Math.min(remainingTimeInMillis, MUTATION_OBSERVER_WAIT_SLICE_IN_MILLIS));
+			}
+			catch (WebDriverException e) {
+
+				// The page may have been replaced (or the element may have become stale) while waiting. Poll for the
+				// rest of the wait rather than retrying the script immediately, since a page which keeps failing the
+				// script would otherwise cause a busy loop of browser commands until the time out.
+				logger.debug("Waiting for a mutation failed: {}. Polling for the rest of the wait instead.",
+					e.getMessage());
+				createWait(TimeUnit.NANOSECONDS.toMillis(Math.max(deadline - System.nanoTime(), 0))).until(
+					browserSideCondition);
+
+				return;
+			}
+		}
+
+		// Check the condition one last time and throw the same TimeoutException that polling would throw.
+		createWait(0).until(browserSideCondition);
+	}
+}
@@ -0,0 +1,268 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser.internal;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
+import org.openqa.selenium.support.ui.ExpectedCondition;
+import org.openqa.selenium.support.ui.ExpectedConditions;
+
+import com.liferay.faces.test.selenium.browser.TestUtil;
+import com.liferay.faces.test.selenium.expectedconditions.ElementEnabled;
+
+import com.machinepublishers.jbrowserdriver.JBrowserDriver;
+
+
+/**
+ * An {@link ExpectedCondition} which can also be evaluated inside the browser as a JavaScript predicate. Conditions
+ * can be combined via {@link #and(BrowserSideCondition...)} and {@link #not(BrowserSideCondition)} so that a composite
+ * condition is checked with a single <code>executeScript()</code> call per poll rather than several <code>
+ * findElements()</code>, <code>isDisplayed()</code>, and <code>getText()</code> calls. The predicate also allows a wait
+ * to be woken up as soon as the DOM mutates into the expected state. Since the predicate only approximates the Selenium
+ * semantics (for example of whether an element is displayed), the equivalent Selenium condition is checked to confirm
+ * the result once the predicate is true. Browsers which do not support JavaScript (and HtmlUnit and JBrowser, whose
+ * layout only approximates a real browser's) only check the Selenium condition.
+ *
+ * @author  Kyle Stiemann
+ */
+public final class BrowserSideCondition implements ExpectedCondition<Object> {
+
+	// Public Constants
+	/**
+	 * The functions which are available to every predicate.
+	 */
+	public static final String PREDICATE_FUNCTIONS;
+
+	// Private Constants
+	private static final String DISPLAYED_PREDICATE_FUNCTION = "function displayed(element) {" +
+		"if (!element || !element.ownerDocument || !element.ownerDocument.documentElement.contains(element) || " +
+		"(element.tagName === 'INPUT' && element.type === 'hidden')) { return false; }" +
+		"for (var node = element; node && node.nodeType === 1; node = node.parentNode) {" +
+		"var style = window.getComputedStyle(node);" +
+		"if (style.display === 'none' || style.opacity === '0' || " +
+		"(node === element && style.visibility === 'hidden')) { return false; } }" +
+		"return element.offsetWidth > 0 || element.offsetHeight > 0 || element.getClientRects().length > 0; }";
+	private static final String FIND_PREDICATE_FUNCTION = "function find(xpath) {" +
+		"return document.evaluate(xpath, document, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null)" +
+		".singleNodeValue; }";
+	private static final boolean SCRIPTED_CONDITIONS = Boolean.valueOf(TestUtil.getSystemPropertyOrDefault(
+				"integration.browser.driver.scripted.conditions", "true"));
+	private static final String TEXT_PREDICATE_FUNCTION = "function text(element) {" +
+		"return element ? (element.innerText || element.textContent || '') : ''; }";
+
+	static {
+		PREDICATE_FUNCTIONS = DISPLAYED_PREDICATE_FUNCTION + FIND_PREDICATE_FUNCTION + TEXT_PREDICATE_FUNCTION;
+	}
+
+	// Private Final Data Members
+	private final ExpectedCondition<?> expectedCondition;
+	private final String predicate;
+	private final WebElement webElement;
+
+	private BrowserSideCondition(ExpectedCondition<?> expectedCondition, String predicate, WebElement webElement) {
+
+		this.expectedCondition = expectedCondition;
+		this.predicate = predicate;
+		this.webElement = webElement;
+	}
+
+	/**
+	 * Returns a condition which is met when all of the conditions are met. At most one of the conditions may refer to
+	 * a specific element (see {@link #getWebElement()}).
+	 */
+	public static BrowserSideCondition and(BrowserSideCondition... browserSideConditions) {
+
+		ExpectedCondition<?>[] expectedConditions = new ExpectedCondition<?>[browserSideConditions.length];
+		StringBuilder buf = new StringBuilder("(");
+		WebElement webElement = null;
+
+		for (int i = 0; i < browserSideConditions.length; i++) {
+
+			BrowserSideCondition browserSideCondition = browserSideConditions[i];
+			expectedConditions[i] = browserSideCondition.expectedCondition;
+
+			if (i > 0) {
+				buf.append(" && ");
+			}
+
+			buf.append(browserSideCondition.predicate);
+
+			if (browserSideCondition.webElement != null) {
+
+				if ((webElement != null) && !webElement.equals(browserSideCondition.webElement)) {
+					throw new IllegalArgumentException("At most one condition may refer to a specific element.");
+				}
+
+				webElement = browserSideCondition.webElement;
+			}
+		}
+
+		buf.append(")");
+
+		return new BrowserSideCondition(ExpectedConditions.and(expectedConditions), buf.toString(), webElement);
+	}
+
+	public static BrowserSideCondition elementDisplayed(String elementXpath) {
+		return new BrowserSideCondition(ExpectedConditions.visibilityOfElementLocated(By.xpath(elementXpath)),
+				"displayed(find(" + toStringLiteral(elementXpath) + "))", null);
+	}
+
+	public static BrowserSideCondition elementEnabled(String elementXpath) {
+
+		String elementLiteral = "find(" + toStringLiteral(elementXpath) + ")";
+
+		return new BrowserSideCondition(new ElementEnabled(elementXpath),
+				"(" + elementLiteral + " !== null && !" + elementLiteral + ".disabled)", null);
+	}
+
+	public static BrowserSideCondition elementNotDisplayed(String elementXpath) {
+		return new BrowserSideCondition(ExpectedConditions.invisibilityOfElementLocated(By.xpath(elementXpath)),
+				"!displayed(find(" + toStringLiteral(elementXpath) + "))", null);
+	}
+
+	public static BrowserSideCondition elementPresent(String elementXpath) {
+		return new BrowserSideCondition(ExpectedConditions.presenceOfElementLocated(By.xpath(elementXpath)),
+				"(find(" + toStringLiteral(elementXpath) + ") !== null)", null);
+	}
+
+	/**
+	 * Returns a condition which is met once the element has been removed from the DOM (for example because it was
+	 * rerendered via Ajax). The element is passed to the predicate as the <code>element</code> variable.
+	 */
+	public static BrowserSideCondition elementStale(WebElement webElement) {
+		return new BrowserSideCondition(ExpectedConditions.stalenessOf(webElement),
+				"!element.ownerDocument.documentElement.contains(element)", webElement);
+	}
+
+	public static BrowserSideCondition not(BrowserSideCondition browserSideCondition) {
+		return new BrowserSideCondition(ExpectedConditions.not(browserSideCondition.expectedCondition),
+				"!(" + browserSideCondition.predicate + ")", browserSideCondition.webElement);
+	}
+
+	public static BrowserSideCondition textPresentInElement(String text, String elementXpath) {
+
+		By byXpath = By.xpath(elementXpath);
+		String predicate = "(text(find(" + toStringLiteral(elementXpath) + ")).indexOf(" + toStringLiteral(text) +
+			") > -1)";
+
+		return new BrowserSideCondition(ExpectedConditions.textToBePresentInElementLocated(byXpath, text), predicate,
+				null);
+	}
+
+	public static BrowserSideCondition textPresentInElementValue(String text, String elementXpath) {
+
+		By byXpath = By.xpath(elementXpath);
+		String elementLiteral = "find(" + toStringLiteral(elementXpath) + ")";
+
+		return new BrowserSideCondition(ExpectedConditions.textToBePresentInElementValue(byXpath, text),
+				"(" + elementLiteral + " !== null && String(" + elementLiteral + ".value).indexOf(" +
+				toStringLiteral(text) + ") > -1)", null);
+	}
+
+	/**
+	 * Returns true if the predicate should be evaluated in the browser before the Selenium condition is checked.
+	 */
+	/* package-private */ static boolean isPredicateEvaluatedInBrowser(WebDriver webDriver) {
+		return SCRIPTED_CONDITIONS && (webDriver instanceof JavascriptExecutor) &&
+			!(webDriver instanceof HtmlUnitDriver) && !(webDriver instanceof JBrowserDriver);
+	}
+
+	/**
+	 * Returns the text as a JavaScript string literal which can safely be embedded in a predicate.
+	 */
+	/* package-private */ static String toStringLiteral(String text) {
+
+		StringBuilder buf = new StringBuilder(text.length() + 2);
+		buf.append('"');
+
+		for (int i = 0; i < text.length(); i++) {
+
+			char c = text.charAt(i);
+
+			if ((c == '"') || (c == '\\')) {
+				buf.append('\\').append(c);
+			}
+			else if ((c < 0x20) || (c == 0x2028) || (c == 0x2029) || (c == '<')) {
+				buf.append(String.format("\\u%04x", (int) c));
+			}
+			else {
+				buf.append(c);
+			}
+		}
+
+		buf.append('"');
+
+		return buf.toString();
+	}
+
+	@Override
+	public Object apply(WebDriver webDriver) {
+
+		if (isPredicateEvaluatedInBrowser(webDriver)) {
+
+			JavascriptExecutor javascriptExecutor = (JavascriptExecutor) webDriver;
+			Object predicateResult;
+
+			try {
+				predicateResult = javascriptExecutor.executeScript(PREDICATE_FUNCTIONS +
+						"var element = arguments[0]; return !!(" + predicate + ");", webElement);
+			}
+			catch (StaleElementReferenceException e) {
+
+				// Let the Selenium condition decide what a stale element means for the condition.
+				predicateResult = Boolean.TRUE;
+			}
+
+			if (!Boolean.TRUE.equals(predicateResult)) {
+				return Boolean.FALSE;
+			}
+		}
+
+		return expectedCondition.apply(webDriver);
+	}
+
+	/**
+	 * Returns the equivalent Selenium condition, which is checked without evaluating the predicate.
+	 */
+	public ExpectedCondition<?> getExpectedCondition() {
+		return expectedCondition;
+	}
+
+	/**
+	 * Returns a JavaScript boolean expression which is true when the condition is met. The expression may use the
+	 * {@link #PREDICATE_FUNCTIONS} and the <code>element</code> variable (see {@link #getWebElement()}).
+	 */
+	public String getPredicate() {
+		return predicate;
+	}
+
+	/**
+	 * Returns the element which is referred to by the predicate as the <code>element</code> variable or null if the
+	 * predicate does not refer to a specific element.
+	 */
+	public WebElement getWebElement() {
+		return webElement;
+	}
+
+	@Override
+	public String toString() {
+		return expectedCondition.toString();
+	}
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser.internal;
+
+import java.awt.Rectangle;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+
+/**
+ * The markup and screenshot of the browser's current window, captured on the test thread so that they can be written
+ * later (see {@link CapturedBrowserStateWriter}).
+ *
+ * @author  Kyle Stiemann
+ */
+public final class CapturedBrowserState {
+
+	// Private Final Data Members
+	private final String captureThreadName;
+	private final long captureTimeInMillis;
+	private final String fileName;
+	private final String markup;
+	private final byte[] screenshotBytes;
+	private final Rectangle screenshotCropRegion;
+	private final long screenshotEncodeTimeInMillis;
+	private final String screenshotFileExtension;
+	private final String url;
+
+	/**
+	 * @param  captureTimeInMillis  The time (see {@link System#currentTimeMillis()}) of the capture.
+	 * @param  fileName  The path of the captured files without the file extension.
+	 * @param  url  The url of the captured window.
+	 * @param  markup  The markup of the captured window or null if the markup could not be captured.
+	 * @param  screenshotBytes  The PNG screenshot of the captured window or null if the browser does not support
+	 *                          screenshots.
+	 * @param  screenshotCropRegion  The region (in screenshot pixels) that the screenshot should be cropped to when it
+	 *                               is encoded (see {@link CapturedScreenshotEncoder}) or null if the screenshot
+	 *                               should not be cropped.
+	 */
+	public CapturedBrowserState(long captureTimeInMillis, String fileName, String url, String markup,
+		byte[] screenshotBytes, Rectangle screenshotCropRegion) {
+		this(Thread.currentThread().getName(), captureTimeInMillis, fileName, url, markup, screenshotBytes,
+			screenshotCropRegion, -1, ".png");
+	}
+
+	private CapturedBrowserState(String captureThreadName, long captureTimeInMillis, String fileName, String url,
+		String markup, byte[] screenshotBytes, Rectangle screenshotCropRegion, long screenshotEncodeTimeInMillis,
+		String screenshotFileExtension) {
+
+		this.captureThreadName = captureThreadName;
+		this.captureTimeInMillis = captureTimeInMillis;
+		this.fileName = fileName;
+		this.url = url;
+		this.markup = markup;
+		this.screenshotBytes = screenshotBytes;
+		this.screenshotCropRegion = screenshotCropRegion;
+		this.screenshotEncodeTimeInMillis = screenshotEncodeTimeInMillis;
+		this.screenshotFileExtension = screenshotFileExtension;
+	}
+
+	/**
+	 * Returns the lowercase hexadecimal SHA-256 hash of the bytes. Captured files are named after this hash when they
+	 * are deduplicated.
+	 */
+	public static String getContentHash(byte[] bytes) {
+
+		MessageDigest messageDigest;
+
+		try {
+			messageDigest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+
+			// Every Java platform implementation is required to support SHA-256.
+			throw new IllegalStateException(e);
+		}
+
+		byte[] digest = messageDigest.digest(bytes);
+		StringBuilder buf = new StringBuilder(digest.length * 2);
+
+		for (byte b : digest) {
+
+			buf.append(Character.forDigit((b >> 4) & 0xF, 16));
+			buf.append(Character.forDigit(b & 0xF, 16));
+		}
+
+		return buf.toString();
+	}
+
+	/**
+	 * Returns the name of the thread (usually a test thread) which created this captured state.
+	 */
+	public String getCaptureThreadName() {
+		return captureThreadName;
+	}
+
+	public long getCaptureTimeInMillis() {
+		return captureTimeInMillis;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public String getMarkup() {
+		return markup;
+	}
+
+	/**
+	 * Returns the markup encoded as UTF-8 or null if the markup could not be captured.
+	 */
+	public byte[] getMarkupBytes() {
+
+		byte[] markupBytes = null;
+
+		if (markup != null) {
+			markupBytes = markup.getBytes(StandardCharsets.UTF_8);
+		}
+
+		return markupBytes;
+	}
+
+	public byte[] getScreenshotBytes() {
+		return screenshotBytes;
+	}
+
+	public Rectangle getScreenshotCropRegion() {
+		return screenshotCropRegion;
+	}
+
+	/**
+	 * Returns the time that it took to encode the screenshot or -1 if the screenshot is the original PNG screenshot.
+	 */
+	public long getScreenshotEncodeTimeInMillis() {
+		return screenshotEncodeTimeInMillis;
+	}
+
+	/**
+	 * Returns the file extension (including the leading dot) of the screenshot's format.
+	 */
+	public String getScreenshotFileExtension() {
+		return screenshotFileExtension;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Returns a copy of this captured state with the encoded screenshot.
+	 */
+	public CapturedBrowserState withEncodedScreenshot(byte[] encodedScreenshotBytes, String screenshotFileExtension,
+		long screenshotEncodeTimeInMillis) {
+		return new CapturedBrowserState(captureThreadName, captureTimeInMillis, fileName, url, markup,
+				encodedScreenshotBytes, null, screenshotEncodeTimeInMillis, screenshotFileExtension);
+	}
+}
@@ -0,0 +1,459 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.liferay.faces.test.selenium.browser.TestUtil;
+import com.liferay.faces.test.selenium.util.ClosableUtil;
+
+
+/**
+ * Streams {@link CapturedBrowserState}s into rolling zip segments in a capture directory instead of writing loose
+ * files. A segment is named <code>captured-browser-state-*.zip.part</code> while it is being written and is renamed
+ * to <code>captured-browser-state-*.zip</code> once it is closed, which happens when it reaches the <code>
+ * "integration.captured.browser.state.archive.segment.size"</code> (in MB) and when the test run finishes (see
+ * {@link CapturedBrowserStateShutdown}). Whenever a segment is closed, closed segments older than the <code>
+ * "integration.captured.browser.state.archive.max.age"</code> (in hours) are deleted, followed by the oldest closed
+ * segments until the total size of the closed segments is at most the <code>
+ * "integration.captured.browser.state.archive.max.size"</code> (in MB). Each capture is listed in the directory's
+ * <code>index.tsv</code> file with its time, name (which starts with the capture's file name prefix), url, segment and
+ * zip entries so that captures can be found without opening every segment. The captures of a segment are only listed
+ * once the segment has been closed, so the index only ever refers to closed segments (by their final name).
+ *
+ * @author  Kyle Stiemann
+ */
+public final class CapturedBrowserStateArchive {
+
+	// Logger
+	private static final Logger logger = LoggerFactory.getLogger(CapturedBrowserStateArchive.class);
+
+	// Private Constants
+	private static final String INDEX_FILE_NAME = "index.tsv";
+	private static final String INDEX_HEADER = "time\tname\turl\tsegment\tentries\n";
+	private static final long MAX_AGE_IN_MILLIS = TimeUnit.HOURS.toMillis(Long.parseLong(
+				TestUtil.getSystemPropertyOrDefault("integration.captured.browser.state.archive.max.age", "168")));
+	private static final long MAX_SIZE_IN_BYTES = Long.parseLong(TestUtil.getSystemPropertyOrDefault(
+				"integration.captured.browser.state.archive.max.size", "1024")) * 1024 * 1024;
+	private static final String SEGMENT_FILE_NAME_PREFIX = "captured-browser-state-";
+	private static final DateTimeFormatter SEGMENT_DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern(
+			"yyyyMMdd-HHmmss-SSS", Locale.ENGLISH);
+	private static final long SEGMENT_SIZE_IN_BYTES = Long.parseLong(TestUtil.getSystemPropertyOrDefault(
+				"integration.captured.browser.state.archive.segment.size", "64")) * 1024 * 1024;
+
+	// Private Static Data Members
+	private static final Map<Path, CapturedBrowserStateArchive> archives =
+		new HashMap<Path, CapturedBrowserStateArchive>();
+	private static final AtomicInteger segmentCount = new AtomicInteger();
+
+	// Private Final Data Members
+	private final Path directory;
+	private final Set<String> segmentEntryNames = new HashSet<String>();
+	private final List<String> segmentIndexLines = new ArrayList<String>();
+
+	// Private Data Members
+	private FileChannel segmentFileChannel;
+	private Path segmentPath;
+	private ZipOutputStream segmentZipOutputStream;
+
+	private CapturedBrowserStateArchive(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Closes the current segment of every archive.
+	 */
+	public static void closeAll() {
+
+		List<CapturedBrowserStateArchive> capturedBrowserStateArchives;
+
+		synchronized (archives) {
+			capturedBrowserStateArchives = new ArrayList<CapturedBrowserStateArchive>(archives.values());
+		}
+
+		for (CapturedBrowserStateArchive capturedBrowserStateArchive : capturedBrowserStateArchives) {
+
+			try {
+				capturedBrowserStateArchive.close();
+			}
+			catch (IOException e) {
+				logger.error("Unable to close captured browser state archive segment due to the following exception:",
+					e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the archive of the directory. There is only one archive per directory in each JVM.
+	 */
+	public static CapturedBrowserStateArchive getInstance(Path directory) {
+
+		Path absoluteDirectory = directory.toAbsolutePath().normalize();
+
+		synchronized (archives) {
+
+			CapturedBrowserStateArchive capturedBrowserStateArchive = archives.get(absoluteDirectory);
+
+			if (capturedBrowserStateArchive == null) {
+
+				CapturedBrowserStateShutdown.addShutdownHook();
+				capturedBrowserStateArchive = new CapturedBrowserStateArchive(absoluteDirectory);
+				archives.put(absoluteDirectory, capturedBrowserStateArchive);
+			}
+
+			return capturedBrowserStateArchive;
+		}
+	}
+
+	private static String toIndexValue(String value) {
+
+		if (value == null) {
+			return "";
+		}
+
+		return value.replaceAll("[\t\r\n]", " ");
+	}
+
+	/**
+	 * Closes the current segment (if any) and applies the retention policy. The next capture starts a new segment. If
+	 * the segment cannot be closed, it is deleted (along with its captures) rather than left behind as a <code>
+	 * .part</code> file, since the retention policy never deletes <code>.part</code> files.
+	 */
+	public synchronized void close() throws IOException {
+
+		if (segmentZipOutputStream == null) {
+			return;
+		}
+
+		Path partialSegmentPath = segmentPath;
+		String indexLines = String.join("", segmentIndexLines);
+		segmentPath = null;
+		segmentIndexLines.clear();
+
+		boolean closed = false;
+
+		try {
+
+			try {
+				segmentZipOutputStream.close();
+			}
+			finally {
+
+				ClosableUtil.close(segmentFileChannel);
+				segmentZipOutputStream = null;
+				segmentFileChannel = null;
+			}
+
+			String segmentFileName = partialSegmentPath.getFileName().toString();
+			Files.move(partialSegmentPath,
+				directory.resolve(segmentFileName.substring(0, segmentFileName.length() - 5)));
+			closed = true;
+		}
+		finally {
+
+			if (!closed) {
+
+				try {
+					Files.deleteIfExists(partialSegmentPath);
+				}
+				catch (IOException e) {
+					logger.warn("Unable to delete partial archive segment {}: {}", partialSegmentPath,
+						e.getMessage());
+				}
+			}
+		}
+
+		appendToIndex(indexLines);
+		applyRetentionPolicy();
+	}
+
+	/**
+	 * Writes the capture's markup and screenshot to the current segment. The capture is listed in the index once the
+	 * segment is closed. Returns the path of the segment that the capture will be in once the segment is closed. When
+	 * deduplicate is true, the markup and screenshot are written as <code>blobs/</code> entries named after their
+	 * content hash (see {@link CapturedBrowserState#getContentHash(byte[])}), and an entry which is already in the
+	 * current segment is only listed in the index rather than written again. Otherwise, an entry whose name is already
+	 * in the current segment is given a unique name by appending <code>-1</code>, <code>-2</code>, etc. to the name.
+	 */
+	public synchronized Path write(CapturedBrowserState capturedBrowserState, boolean deduplicate)
+		throws IOException {
+
+		if (segmentZipOutputStream == null) {
+			openSegment();
+		}
+
+		String name = Paths.get(capturedBrowserState.getFileName()).getFileName().toString();
+		List<String> entryNames = new ArrayList<String>();
+		byte[] markupBytes = capturedBrowserState.getMarkupBytes();
+
+		if (markupBytes != null) {
+			entryNames.add(writeEntry(name, ".html", markupBytes, true, deduplicate));
+		}
+
+		byte[] screenshotBytes = capturedBrowserState.getScreenshotBytes();
+
+		if (screenshotBytes != null) {
+
+			// PNGs and JPEGs are already compressed, so store them as is rather than spending time deflating them.
+			entryNames.add(writeEntry(name, capturedBrowserState.getScreenshotFileExtension(), screenshotBytes, false,
+					deduplicate));
+		}
+
+		String segmentFileName = segmentPath.getFileName().toString();
+		Path closedSegmentPath = directory.resolve(segmentFileName.substring(0, segmentFileName.length() - 5));
+		String time = Instant.ofEpochMilli(capturedBrowserState.getCaptureTimeInMillis()).toString();
+		segmentIndexLines.add(time + "\t" + toIndexValue(name) + "\t" + toIndexValue(capturedBrowserState.getUrl()) +
+			"\t" + closedSegmentPath.getFileName() + "\t" + String.join(",", entryNames) + "\n");
+
+		segmentZipOutputStream.flush();
+
+		if (segmentFileChannel.size() >= SEGMENT_SIZE_IN_BYTES) {
+			close();
+		}
+
+		return closedSegmentPath;
+	}
+
+	private void appendToIndex(String indexLine) throws IOException {
+
+		FileChannel lockFileChannel = openIndexLock();
+
+		try {
+
+			FileLock fileLock = lockFileChannel.lock();
+
+			try {
+
+				Path indexPath = directory.resolve(INDEX_FILE_NAME);
+				String indexLines = indexLine;
+
+				if (!Files.exists(indexPath)) {
+					indexLines = INDEX_HEADER + indexLine;
+				}
+
+				FileChannel indexFileChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+				try {
+
+					ByteBuffer byteBuffer = ByteBuffer.wrap(indexLines.getBytes(StandardCharsets.UTF_8));
+
+					while (byteBuffer.hasRemaining()) {
+						indexFileChannel.write(byteBuffer);
+					}
+				}
+				finally {
+					ClosableUtil.close(indexFileChannel);
+				}
+			}
+			finally {
+				fileLock.release();
+			}
+		}
+		finally {
+			ClosableUtil.close(lockFileChannel);
+		}
+	}
+
+	private void applyRetentionPolicy() throws IOException {
+
+		// Segments which are still being written (by this or another JVM) end with ".part" and are never deleted.
+		List<Path> segmentPaths = new ArrayList<Path>();
+		DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory, SEGMENT_FILE_NAME_PREFIX + "*.zip");
+
+		try {
+
+			for (Path path : directoryStream) {
+				segmentPaths.add(path);
+			}
+		}
+		finally {
+			ClosableUtil.close(directoryStream);
+		}
+
+		final Map<Path, Long> lastModifiedTimes = new HashMap<Path, Long>();
+		long totalSizeInBytes = 0;
+
+		for (Path path : segmentPaths) {
+
+			lastModifiedTimes.put(path, Files.getLastModifiedTime(path).toMillis());
+			totalSizeInBytes += Files.size(path);
+		}
+
+		Collections.sort(segmentPaths, new Comparator<Path>() {
+
+				@Override
+				public int compare(Path path1, Path path2) {
+					return lastModifiedTimes.get(path1).compareTo(lastModifiedTimes.get(path2));
+				}
+			});
+
+		long oldestRetainedTime = System.currentTimeMillis() - MAX_AGE_IN_MILLIS;
+		Set<String> deletedSegmentFileNames = new HashSet<String>();
+
+		for (Path path : segmentPaths) {
+
+			if ((lastModifiedTimes.get(path) >= oldestRetainedTime) && (totalSizeInBytes <= MAX_SIZE_IN_BYTES)) {
+				break;
+			}
+
+			totalSizeInBytes -= Files.size(path);
+			Files.deleteIfExists(path);
+			deletedSegmentFileNames.add(path.getFileName().toString());
+			logger.debug("Deleted captured browser state archive segment {}.", path);
+		}
+
+		if (!deletedSegmentFileNames.isEmpty()) {
+			removeFromIndex(deletedSegmentFileNames);
+		}
+	}
+
+	private FileChannel openIndexLock() throws IOException {
+		return FileChannel.open(directory.resolve(INDEX_FILE_NAME + ".lock"), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+	}
+
+	private void openSegment() throws IOException {
+
+		Files.createDirectories(directory);
+
+		String dateString = SEGMENT_DATE_TIME_FORMATTER.format(LocalDateTime.now(ZoneId.systemDefault()));
+		segmentPath = directory.resolve(SEGMENT_FILE_NAME_PREFIX + dateString + "-" + ProcessHandle.current().pid() +
+				"-" + segmentCount.incrementAndGet() + ".zip.part");
+		segmentFileChannel = FileChannel.open(segmentPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		segmentZipOutputStream = new ZipOutputStream(new BufferedOutputStream(Channels.newOutputStream(
+						segmentFileChannel), 64 * 1024));
+		segmentEntryNames.clear();
+		segmentIndexLines.clear();
+	}
+
+	private void removeFromIndex(Set<String> deletedSegmentFileNames) throws IOException {
+
+		FileChannel lockFileChannel = openIndexLock();
+
+		try {
+
+			FileLock fileLock = lockFileChannel.lock();
+
+			try {
+
+				Path indexPath = directory.resolve(INDEX_FILE_NAME);
+
+				if (!Files.exists(indexPath)) {
+					return;
+				}
+
+				List<String> retainedIndexLines = new ArrayList<String>();
+
+				for (String indexLine : Files.readAllLines(indexPath, StandardCharsets.UTF_8)) {
+
+					String[] values = indexLine.split("\t", -1);
+
+					if ((values.length < 4) || !deletedSegmentFileNames.contains(values[3])) {
+						retainedIndexLines.add(indexLine);
+					}
+				}
+
+				Path temporaryPath = Files.createTempFile(directory, INDEX_FILE_NAME, ".tmp");
+
+				try {
+
+					Files.write(temporaryPath, retainedIndexLines, StandardCharsets.UTF_8);
+					Files.move(temporaryPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+				}
+				finally {
+					Files.deleteIfExists(temporaryPath);
+				}
+			}
+			finally {
+				fileLock.release();
+			}
+		}
+		finally {
+			ClosableUtil.close(lockFileChannel);
+		}
+	}
+
+	private String writeEntry(String name, String extension, byte[] bytes, boolean deflated, boolean deduplicate)
+		throws IOException {
+
+		String entryName = name + extension;
+
+		if (deduplicate) {
+			entryName = "blobs/" + CapturedBrowserState.getContentHash(bytes) + extension;
+		}
+		else {
+
+			for (int i = 1; segmentEntryNames.contains(entryName); i++) {
+				entryName = name + "-" + i + extension;
+			}
+		}
+
+		if (segmentEntryNames.add(entryName)) {
+
+			ZipEntry zipEntry = new ZipEntry(entryName);
+
+			if (!deflated) {
+
+				CRC32 crc32 = new CRC32();
+				crc32.update(bytes);
+				zipEntry.setMethod(ZipEntry.STORED);
+				zipEntry.setSize(bytes.length);
+				zipEntry.setCompressedSize(bytes.length);
+				zipEntry.setCrc(crc32.getValue());
+			}
+
+			segmentZipOutputStream.putNextEntry(zipEntry);
+			segmentZipOutputStream.write(bytes);
+			segmentZipOutputStream.closeEntry();
+		}
+
+		return entryName;
+	}
+}
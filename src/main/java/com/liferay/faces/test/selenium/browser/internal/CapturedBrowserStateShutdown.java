@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser.internal;
+
+/**
+ * Finishes writing captured browser state at the end of the test run. Each stage hands its output to the next one, so
+ * the stages must be shut down in order: the {@link CapturedScreenshotEncoder} passes encoded captures to the {@link
+ * CapturedBrowserStateWriter}, which writes them to the {@link CapturedBrowserStateArchive}s. {@link #shutDown()} is
+ * called by {@link BrowserDriverFactoryImpl#shutDownImplementation()} when the tests are run with maven and by a
+ * single shutdown hook (for example when the tests are run from an IDE).
+ *
+ * @author  Kyle Stiemann
+ */
+public final class CapturedBrowserStateShutdown {
+
+	// Private Static Data Members
+	private static boolean shutdownHookAdded;
+
+	private CapturedBrowserStateShutdown() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Adds the shutdown hook which calls {@link #shutDown()} unless it has already been added.
+	 */
+	public static synchronized void addShutdownHook() {
+
+		if (!shutdownHookAdded) {
+
+			Runtime.getRuntime().addShutdownHook(new Thread(CapturedBrowserStateShutdown::shutDown,
+					"captured-browser-state-shutdown"));
+			shutdownHookAdded = true;
+		}
+	}
+
+	/**
+	 * Waits for pending screenshots to be encoded, then waits for pending captures to be written, and then closes the
+	 * current segment of every archive so that the captures can be read. Calling this method more than once is
+	 * harmless.
+	 */
+	public static void shutDown() {
+
+		CapturedScreenshotEncoder.flushIfStarted();
+		CapturedBrowserStateWriter.flushIfStarted();
+		CapturedBrowserStateArchive.closeAll();
+	}
+}
@@ -0,0 +1,511 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.liferay.faces.test.selenium.browser.TestUtil;
+import com.liferay.faces.test.selenium.util.CapturedMarkupReconstructor;
+import com.liferay.faces.test.selenium.util.ClosableUtil;
+import com.liferay.faces.test.selenium.util.MarkupDiffUtil;
+
+
+/**
+ * Writes {@link CapturedBrowserState}s to disk. {@link #submit(CapturedBrowserState)} hands captures to a single
+ * background thread through a bounded queue (the <code>"integration.captured.browser.state.async.queue.size"</code>
+ * system property) so that the test thread does not wait for disk I/O. When the queue is full, the test thread waits
+ * for space for up to the <code>"integration.captured.browser.state.async.backpressure.time.out"</code> system
+ * property (in milliseconds) and then drops the capture. The number of captures that had to wait and that were
+ * dropped is logged when the writer is flushed. When the <code>"integration.captured.browser.state.archive"</code>
+ * system property is true, captures are written to a {@link CapturedBrowserStateArchive} instead of loose files.
+ * When the <code>"integration.captured.browser.state.deduplicate"</code> system property is true, each unique markup
+ * and screenshot is only stored once (in the <code>blobs</code> directory, named after its content hash), and each
+ * capture only writes a small <code>.properties</code> record which refers to its markup and screenshot. Otherwise,
+ * when the <code>"integration.captured.browser.state.diff"</code> system property is true, each capture's markup is
+ * written as a <code>.html.diff</code> file against the previous capture by the same thread in the same directory
+ * (see {@link CapturedMarkupReconstructor}), and only every 51st capture is written in full.
+ *
+ * <p>The archive mode takes precedence over the other modes: archived captures are deduplicated within the archive
+ * when the deduplicate mode is also enabled, but are never diffed. The deduplicate mode takes precedence over the diff
+ * mode, so the diff mode only applies when neither of the other modes is enabled.</p>
+ *
+ * @author  Kyle Stiemann
+ */
+public final class CapturedBrowserStateWriter {
+
+	// Logger
+	private static final Logger logger = LoggerFactory.getLogger(CapturedBrowserStateWriter.class);
+
+	// Private Constants
+	private static final boolean ARCHIVE = Boolean.valueOf(TestUtil.getSystemPropertyOrDefault(
+				"integration.captured.browser.state.archive", "false"));
+	private static final long BACKPRESSURE_TIME_OUT_IN_MILLIS = Long.parseLong(TestUtil.getSystemPropertyOrDefault(
+				"integration.captured.browser.state.async.backpressure.time.out", "1000"));
+	private static final boolean DEDUPLICATE = Boolean.valueOf(TestUtil.getSystemPropertyOrDefault(
+				"integration.captured.browser.state.deduplicate", "false"));
+	private static final boolean DIFF = Boolean.valueOf(TestUtil.getSystemPropertyOrDefault(
+				"integration.captured.browser.state.diff", "false"));
+	private static final long FLUSH_TIME_OUT_IN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+	private static final int MAX_DIFF_CHAIN_LENGTH = 50;
+	private static final int QUEUE_SIZE = Integer.parseInt(TestUtil.getSystemPropertyOrDefault(
+				"integration.captured.browser.state.async.queue.size", "16"));
+
+	// Private Static Data Members
+	private static final Map<String, DiffBase> diffBases = new HashMap<String, DiffBase>();
+	private static CapturedBrowserStateWriter instance;
+
+	// Private Final Data Members
+	private final AtomicLong backpressureCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final Object pendingLock = new Object();
+	private final BlockingQueue<CapturedBrowserState> queue = new ArrayBlockingQueue<CapturedBrowserState>(
+			QUEUE_SIZE);
+	private final AtomicLong writtenCount = new AtomicLong();
+
+	// Private Data Members
+	private int pendingCount;
+
+	private CapturedBrowserStateWriter() {
+		// Obtain the singleton instance via getInstance().
+	}
+
+	/**
+	 * Waits for pending captures to be written if the writer has been used.
+	 */
+	public static void flushIfStarted() {
+
+		CapturedBrowserStateWriter capturedBrowserStateWriter;
+
+		synchronized (CapturedBrowserStateWriter.class) {
+			capturedBrowserStateWriter = instance;
+		}
+
+		if (capturedBrowserStateWriter != null) {
+			capturedBrowserStateWriter.flush();
+		}
+	}
+
+	public static synchronized CapturedBrowserStateWriter getInstance() {
+
+		if (instance == null) {
+
+			CapturedBrowserStateWriter capturedBrowserStateWriter = new CapturedBrowserStateWriter();
+			Thread writerThread = new Thread(capturedBrowserStateWriter::writeQueuedCapturedBrowserStates,
+					"captured-browser-state-writer");
+			writerThread.setDaemon(true);
+			writerThread.start();
+			CapturedBrowserStateShutdown.addShutdownHook();
+			instance = capturedBrowserStateWriter;
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Returns true if captured markup is written to its own file so that {@link
+	 * com.liferay.faces.test.selenium.browser.BrowserDriver#writeCurrentDocumentMarkup(java.io.OutputStream)} can
+	 * stream the markup directly to that file. Archived, deduplicated and diffed markup must be captured in its
+	 * entirety.
+	 */
+	public static boolean isMarkupStreamable() {
+		return !ARCHIVE && !DEDUPLICATE && !DIFF;
+	}
+
+	/**
+	 * Writes the captured markup to <code>fileName + ".html"</code> and the captured screenshot to the file name with
+	 * the {@link CapturedBrowserState#getScreenshotFileExtension() screenshot file extension} on the calling thread.
+	 * Failures are logged rather than thrown since a failed capture should not fail the test.
+	 */
+	public static void write(CapturedBrowserState capturedBrowserState) {
+
+		if (ARCHIVE) {
+
+			Path directory = Paths.get(capturedBrowserState.getFileName()).toAbsolutePath().getParent();
+
+			try {
+
+				Path segmentPath = CapturedBrowserStateArchive.getInstance(directory).write(capturedBrowserState,
+						DEDUPLICATE);
+				logger.info("The html and screenshot of url=\"{}\" have been archived in {}",
+					capturedBrowserState.getUrl(), segmentPath);
+			}
+			catch (IOException | RuntimeException e) {
+
+				logger.error("Unable to archive captured browser state in {} due to the following exception:\n",
+					directory);
+				logger.error("", e);
+			}
+
+			return;
+		}
+
+		if (DEDUPLICATE) {
+
+			writeDeduplicated(capturedBrowserState);
+
+			return;
+		}
+
+		String fileName = capturedBrowserState.getFileName();
+		String url = capturedBrowserState.getUrl();
+		String markup = capturedBrowserState.getMarkup();
+
+		if (markup != null) {
+
+			String htmlFileName = fileName + ".html";
+
+			try {
+
+				if (DIFF) {
+					htmlFileName = writeMarkupDiff(fileName, capturedBrowserState.getCaptureThreadName(), markup);
+				}
+				else {
+					write(Paths.get(htmlFileName), capturedBrowserState.getMarkupBytes());
+				}
+
+				logger.info("The html of url=\"{}\" has been written to {}", url, htmlFileName);
+			}
+			catch (IOException | RuntimeException e) {
+
+				logger.error("Unable to write page source to {} due to the following exception:\n", htmlFileName);
+				logger.error("", e);
+			}
+		}
+
+		byte[] screenshotBytes = capturedBrowserState.getScreenshotBytes();
+
+		if (screenshotBytes != null) {
+
+			String screenshotFileName = fileName + capturedBrowserState.getScreenshotFileExtension();
+
+			try {
+
+				write(Paths.get(screenshotFileName), screenshotBytes);
+
+				long screenshotEncodeTimeInMillis = capturedBrowserState.getScreenshotEncodeTimeInMillis();
+
+				if (screenshotEncodeTimeInMillis >= 0) {
+					logger.info("A {} byte screenshot of url=\"{}\" (encoded in {}ms) has been saved to {}",
+						screenshotBytes.length, url, screenshotEncodeTimeInMillis, screenshotFileName);
+				}
+				else {
+					logger.info("A {} byte screenshot of url=\"{}\" has been saved to {}", screenshotBytes.length, url,
+						screenshotFileName);
+				}
+			}
+			catch (IOException | RuntimeException e) {
+
+				logger.error("Unable to write screenshot to {} due to the following exception:\n",
+					screenshotFileName);
+				logger.error("", e);
+			}
+		}
+	}
+
+	private static void write(Path path, byte[] bytes) throws IOException {
+
+		FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+
+		try {
+
+			ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+
+			while (byteBuffer.hasRemaining()) {
+				fileChannel.write(byteBuffer);
+			}
+		}
+		finally {
+			ClosableUtil.close(fileChannel);
+		}
+	}
+
+	private static String writeBlob(Path blobsDirectory, String extension, byte[] bytes) throws IOException {
+
+		String blobFileName = CapturedBrowserState.getContentHash(bytes) + extension;
+		Path blobPath = blobsDirectory.resolve(blobFileName);
+
+		if (!Files.exists(blobPath)) {
+
+			// Write to a temporary file first so that other threads and forks never see a partially written blob.
+			Path temporaryPath = Files.createTempFile(blobsDirectory, blobFileName, ".tmp");
+
+			try {
+
+				write(temporaryPath, bytes);
+
+				try {
+					Files.move(temporaryPath, blobPath, StandardCopyOption.ATOMIC_MOVE);
+				}
+				catch (FileAlreadyExistsException e) {
+					// Another thread or fork has written the same blob.
+				}
+			}
+			finally {
+				Files.deleteIfExists(temporaryPath);
+			}
+		}
+
+		return blobsDirectory.getFileName() + "/" + blobFileName;
+	}
+
+	private static void writeDeduplicated(CapturedBrowserState capturedBrowserState) {
+
+		String recordFileName = capturedBrowserState.getFileName() + ".properties";
+
+		try {
+
+			Path recordPath = Paths.get(recordFileName).toAbsolutePath();
+			Path blobsDirectory = recordPath.getParent().resolve("blobs");
+			Files.createDirectories(blobsDirectory);
+
+			Properties record = new Properties();
+			record.setProperty("time", Instant.ofEpochMilli(capturedBrowserState.getCaptureTimeInMillis()).toString());
+			record.setProperty("url", String.valueOf(capturedBrowserState.getUrl()));
+
+			byte[] markupBytes = capturedBrowserState.getMarkupBytes();
+
+			if (markupBytes != null) {
+				record.setProperty("html", writeBlob(blobsDirectory, ".html", markupBytes));
+			}
+
+			byte[] screenshotBytes = capturedBrowserState.getScreenshotBytes();
+
+			if (screenshotBytes != null) {
+				String screenshotFileExtension = capturedBrowserState.getScreenshotFileExtension();
+				record.setProperty(screenshotFileExtension.substring(1),
+					writeBlob(blobsDirectory, screenshotFileExtension, screenshotBytes));
+				record.setProperty("screenshot.size", String.valueOf(screenshotBytes.length));
+				record.setProperty("screenshot.encode.time",
+					String.valueOf(capturedBrowserState.getScreenshotEncodeTimeInMillis()));
+			}
+
+			ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+			record.store(byteArrayOutputStream, null);
+			write(recordPath, byteArrayOutputStream.toByteArray());
+			logger.info("The html and screenshot of url=\"{}\" have been recorded in {}", capturedBrowserState.getUrl(),
+				recordFileName);
+		}
+		catch (IOException | RuntimeException e) {
+
+			logger.error("Unable to write captured browser state to {} due to the following exception:\n",
+				recordFileName);
+			logger.error("", e);
+		}
+	}
+
+	/**
+	 * Writes the markup as a diff against the previous markup captured by the same thread in the same directory (or in
+	 * full if there is no previous markup or the chain of diffs has reached its maximum length) and returns the name of
+	 * the file. Keying the previous markup by the capturing thread keeps tests which run in parallel (for example with
+	 * surefire's <code>parallel=classes</code>) from diffing against each other's pages.
+	 */
+	private static String writeMarkupDiff(String fileName, String captureThreadName, String markup)
+		throws IOException {
+
+		Path directory = Paths.get(fileName).toAbsolutePath().getParent();
+		String diffBaseKey = directory + File.pathSeparator + captureThreadName;
+
+		synchronized (diffBases) {
+
+			// The previous markup is removed until this capture has been written so that the next capture is written
+			// in full if writing this capture fails.
+			DiffBase diffBase = diffBases.remove(diffBaseKey);
+			String markupFileName = fileName + ".html";
+			String content = markup;
+			int diffChainLength = 0;
+
+			if ((diffBase != null) && (diffBase.diffChainLength < MAX_DIFF_CHAIN_LENGTH)) {
+
+				markupFileName = fileName + ".html.diff";
+				content = MarkupDiffUtil.createDiff(diffBase.fileName, diffBase.markup, markup);
+				diffChainLength = diffBase.diffChainLength + 1;
+			}
+
+			Path markupPath = Paths.get(markupFileName);
+			write(markupPath, content.getBytes(StandardCharsets.UTF_8));
+			diffBases.put(diffBaseKey, new DiffBase(markupPath.getFileName().toString(), markup, diffChainLength));
+
+			return markupFileName;
+		}
+	}
+
+	/**
+	 * Waits (for up to one minute) until all submitted captures have been written.
+	 */
+	public void flush() {
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_TIME_OUT_IN_MILLIS);
+
+		synchronized (pendingLock) {
+
+			long remainingTimeInMillis = FLUSH_TIME_OUT_IN_MILLIS;
+
+			while ((pendingCount > 0) && (remainingTimeInMillis > 0)) {
+
+				try {
+					pendingLock.wait(remainingTimeInMillis);
+				}
+				catch (InterruptedException e) {
+
+					Thread.currentThread().interrupt();
+
+					break;
+				}
+
+				remainingTimeInMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			}
+
+			if (pendingCount > 0) {
+				logger.warn("{} captured browser state(s) were not written before flush() timed out.", pendingCount);
+			}
+		}
+
+		long droppedCount = getDroppedCount();
+
+		if (droppedCount > 0) {
+			logger.warn("{} captured browser state(s) were written, {} waited for queue space and {} were dropped.",
+				getWrittenCount(), getBackpressureCount(), droppedCount);
+		}
+		else {
+			logger.debug("{} captured browser state(s) were written and {} waited for queue space.", getWrittenCount(),
+				getBackpressureCount());
+		}
+	}
+
+	/**
+	 * Returns the number of captures that had to wait for space in the queue.
+	 */
+	public long getBackpressureCount() {
+		return backpressureCount.get();
+	}
+
+	/**
+	 * Returns the number of captures that were dropped because the queue remained full.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	/**
+	 * Queues the capture to be written by the background thread. Returns false if the capture was dropped because the
+	 * queue remained full.
+	 */
+	public boolean submit(CapturedBrowserState capturedBrowserState) {
+
+		synchronized (pendingLock) {
+			pendingCount++;
+		}
+
+		boolean queued = queue.offer(capturedBrowserState);
+
+		if (!queued) {
+
+			backpressureCount.incrementAndGet();
+
+			try {
+				queued = queue.offer(capturedBrowserState, BACKPRESSURE_TIME_OUT_IN_MILLIS, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (!queued) {
+
+			droppedCount.incrementAndGet();
+			logger.warn("Dropped the captured browser state of url=\"{}\" because the capture queue is full.",
+				capturedBrowserState.getUrl());
+			decrementPendingCount();
+		}
+
+		return queued;
+	}
+
+	private void decrementPendingCount() {
+
+		synchronized (pendingLock) {
+
+			pendingCount--;
+			pendingLock.notifyAll();
+		}
+	}
+
+	private void writeQueuedCapturedBrowserStates() {
+
+		while (true) {
+
+			CapturedBrowserState capturedBrowserState;
+
+			try {
+				capturedBrowserState = queue.take();
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+
+			try {
+
+				write(capturedBrowserState);
+				writtenCount.incrementAndGet();
+			}
+			finally {
+				decrementPendingCount();
+			}
+		}
+	}
+
+	private static final class DiffBase {
+
+		// Private Final Data Members
+		private final int diffChainLength;
+		private final String fileName;
+		private final String markup;
+
+		public DiffBase(String fileName, String markup, int diffChainLength) {
+
+			this.fileName = fileName;
+			this.markup = markup;
+			this.diffChainLength = diffChainLength;
+		}
+	}
+}
@@ -0,0 +1,326 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser.internal;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.liferay.faces.test.selenium.browser.TestUtil;
+import com.liferay.faces.test.selenium.util.ClosableUtil;
+
+
+/**
+ * Re-encodes captured PNG screenshots on a bounded pool of background threads so that decoding and encoding large
+ * screenshots does not slow down the test thread. The encoding is configured with the following system properties:
+ *
+ * <ul>
+ *   <li><code>"integration.captured.browser.state.screenshot.format"</code>: <code>png</code> (the default) or <code>
+ *     jpeg</code>.</li>
+ *   <li><code>"integration.captured.browser.state.screenshot.jpeg.quality"</code>: the JPEG quality between 0 and 1
+ *     (0.8 by default).</li>
+ *   <li><code>"integration.captured.browser.state.screenshot.scale"</code>: the factor by which the screenshot is
+ *     scaled (1.0 by default).</li>
+ *   <li><code>"integration.captured.browser.state.screenshot.grayscale"</code>: true if the screenshot should be
+ *     converted to grayscale (false by default).</li>
+ * </ul>
+ *
+ * <p>Screenshots are also cropped to their {@link CapturedBrowserState#getScreenshotCropRegion()}. When all of the
+ * encoder threads are busy and the queue is full, the test thread encodes the screenshot itself so that captures are
+ * never dropped and the memory held by pending screenshots stays bounded.</p>
+ *
+ * @author  Kyle Stiemann
+ */
+public final class CapturedScreenshotEncoder {
+
+	// Logger
+	private static final Logger logger = LoggerFactory.getLogger(CapturedScreenshotEncoder.class);
+
+	// Private Constants
+	private static final long FLUSH_TIME_OUT_IN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+	private static final boolean GRAYSCALE = Boolean.valueOf(TestUtil.getSystemPropertyOrDefault(
+				"integration.captured.browser.state.screenshot.grayscale", "false"));
+	private static final boolean JPEG = "jpeg".equalsIgnoreCase(TestUtil.getSystemPropertyOrDefault(
+				"integration.captured.browser.state.screenshot.format", "png"));
+	private static final float JPEG_QUALITY = Float.parseFloat(TestUtil.getSystemPropertyOrDefault(
+				"integration.captured.browser.state.screenshot.jpeg.quality", "0.8"));
+	private static final int QUEUE_SIZE = 8;
+	private static final double SCALE = Double.parseDouble(TestUtil.getSystemPropertyOrDefault(
+				"integration.captured.browser.state.screenshot.scale", "1.0"));
+
+	// Private Static Data Members
+	private static CapturedScreenshotEncoder instance;
+
+	// Private Final Data Members
+	private final ThreadPoolExecutor executor;
+	private final Object pendingLock = new Object();
+
+	// Private Data Members
+	private int pendingCount;
+
+	private CapturedScreenshotEncoder() {
+
+		int threadCount = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+		executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new EncoderThreadFactory(),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	/**
+	 * Returns the encoded screenshot bytes. The screenshot is decoded, cropped, scaled and converted to grayscale (as
+	 * configured) and encoded as a JPEG or PNG.
+	 *
+	 * @throws  IOException  If the screenshot cannot be decoded or encoded.
+	 */
+	public static byte[] encode(byte[] screenshotBytes, Rectangle cropRegion) throws IOException {
+
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(screenshotBytes));
+
+		if (image == null) {
+			throw new IOException("The screenshot is not a readable image.");
+		}
+
+		if (cropRegion != null) {
+
+			Rectangle bounds = cropRegion.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+
+			if (!bounds.isEmpty()) {
+				image = image.getSubimage(bounds.x, bounds.y, bounds.width, bounds.height);
+			}
+		}
+
+		int width = Math.max(1, (int) Math.round(image.getWidth() * SCALE));
+		int height = Math.max(1, (int) Math.round(image.getHeight() * SCALE));
+
+		// JPEG does not support transparency, so the screenshot is always drawn onto an opaque image.
+		int imageType = GRAYSCALE ? BufferedImage.TYPE_BYTE_GRAY : BufferedImage.TYPE_INT_RGB;
+		BufferedImage encodedImage = new BufferedImage(width, height, imageType);
+		Graphics2D graphics = encodedImage.createGraphics();
+
+		try {
+
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.setColor(Color.WHITE);
+			graphics.fillRect(0, 0, width, height);
+			graphics.drawImage(image, 0, 0, width, height, null);
+		}
+		finally {
+			graphics.dispose();
+		}
+
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+
+		if (JPEG) {
+
+			Iterator<ImageWriter> imageWriters = ImageIO.getImageWritersByFormatName("jpeg");
+
+			if (!imageWriters.hasNext()) {
+				throw new IOException("No JPEG image writer is available.");
+			}
+
+			ImageWriter imageWriter = imageWriters.next();
+			ImageOutputStream imageOutputStream = null;
+
+			try {
+
+				imageOutputStream = ImageIO.createImageOutputStream(byteArrayOutputStream);
+				imageWriter.setOutput(imageOutputStream);
+
+				ImageWriteParam imageWriteParam = imageWriter.getDefaultWriteParam();
+				imageWriteParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				imageWriteParam.setCompressionQuality(JPEG_QUALITY);
+				imageWriter.write(null, new IIOImage(encodedImage, null, null), imageWriteParam);
+			}
+			finally {
+
+				imageWriter.dispose();
+				ClosableUtil.close(imageOutputStream);
+			}
+		}
+		else {
+			ImageIO.write(encodedImage, "png", byteArrayOutputStream);
+		}
+
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	/**
+	 * Waits for pending screenshots to be encoded if the encoder has been used.
+	 */
+	public static void flushIfStarted() {
+
+		CapturedScreenshotEncoder capturedScreenshotEncoder;
+
+		synchronized (CapturedScreenshotEncoder.class) {
+			capturedScreenshotEncoder = instance;
+		}
+
+		if (capturedScreenshotEncoder != null) {
+			capturedScreenshotEncoder.flush();
+		}
+	}
+
+	public static synchronized CapturedScreenshotEncoder getInstance() {
+
+		if (instance == null) {
+
+			CapturedBrowserStateShutdown.addShutdownHook();
+			instance = new CapturedScreenshotEncoder();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Returns true if the captured screenshot must be re-encoded because a format other than PNG, scaling, grayscale
+	 * or cropping has been configured.
+	 */
+	public static boolean isEncodingRequired(CapturedBrowserState capturedBrowserState) {
+		return (capturedBrowserState.getScreenshotBytes() != null) &&
+			(JPEG || GRAYSCALE || (SCALE != 1.0) || (capturedBrowserState.getScreenshotCropRegion() != null));
+	}
+
+	/**
+	 * Waits (for up to one minute) until all submitted screenshots have been encoded and handed off.
+	 */
+	public void flush() {
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_TIME_OUT_IN_MILLIS);
+
+		synchronized (pendingLock) {
+
+			long remainingTimeInMillis = FLUSH_TIME_OUT_IN_MILLIS;
+
+			while ((pendingCount > 0) && (remainingTimeInMillis > 0)) {
+
+				try {
+					pendingLock.wait(remainingTimeInMillis);
+				}
+				catch (InterruptedException e) {
+
+					Thread.currentThread().interrupt();
+
+					break;
+				}
+
+				remainingTimeInMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			}
+
+			if (pendingCount > 0) {
+				logger.warn("{} captured screenshot(s) were not encoded before flush() timed out.", pendingCount);
+			}
+		}
+	}
+
+	/**
+	 * Encodes the capture's screenshot on an encoder thread and then passes the capture (with the encoded screenshot)
+	 * to the consumer on that thread. If the screenshot cannot be encoded, the original PNG screenshot is kept.
+	 */
+	public void submit(final CapturedBrowserState capturedBrowserState,
+		final Consumer<CapturedBrowserState> capturedBrowserStateConsumer) {
+
+		synchronized (pendingLock) {
+			pendingCount++;
+		}
+
+		try {
+			executor.execute(() -> {
+
+					try {
+						capturedBrowserStateConsumer.accept(encode(capturedBrowserState));
+					}
+					finally {
+						decrementPendingCount();
+					}
+				});
+		}
+		catch (RuntimeException e) {
+
+			decrementPendingCount();
+			throw e;
+		}
+	}
+
+	private CapturedBrowserState encode(CapturedBrowserState capturedBrowserState) {
+
+		byte[] screenshotBytes = capturedBrowserState.getScreenshotBytes();
+		long startTime = System.nanoTime();
+
+		try {
+
+			byte[] encodedScreenshotBytes = encode(screenshotBytes, capturedBrowserState.getScreenshotCropRegion());
+			long encodeTimeInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+			logger.debug("Encoded the {} byte screenshot of url=\"{}\" as {} bytes in {}ms", screenshotBytes.length,
+				capturedBrowserState.getUrl(), encodedScreenshotBytes.length, encodeTimeInMillis);
+
+			return capturedBrowserState.withEncodedScreenshot(encodedScreenshotBytes, JPEG ? ".jpg" : ".png",
+					encodeTimeInMillis);
+		}
+		catch (IOException | RuntimeException e) {
+
+			logger.error("Unable to encode the screenshot of url=\"{}\" due to the following exception:\n",
+				capturedBrowserState.getUrl());
+			logger.error("", e);
+
+			return capturedBrowserState.withEncodedScreenshot(screenshotBytes, ".png", -1);
+		}
+	}
+
+	private void decrementPendingCount() {
+
+		synchronized (pendingLock) {
+
+			pendingCount--;
+			pendingLock.notifyAll();
+		}
+	}
+
+	private static final class EncoderThreadFactory implements ThreadFactory {
+
+		// Private Final Data Members
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+
+			Thread thread = new Thread(runnable, "captured-screenshot-encoder-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
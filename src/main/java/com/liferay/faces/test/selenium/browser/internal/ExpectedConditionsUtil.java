@@ -43,4 +43,47 @@ public final class ExpectedConditionsUtil {
 
 		return expectedCondition;
 	}
+
+	/**
+	 * Returns a condition which expects the original condition to be met and (if necessary) the element to be
+	 * displayed. If the original condition is a {@link BrowserSideCondition}, the returned condition is also a {@link
+	 * BrowserSideCondition} so that both conditions are checked together in the browser.
+	 */
+	public static ExpectedCondition<?> ifNecessaryExpectElementDisplayed(ExpectedCondition<?> originalExpectedCondition,
+		boolean elementMustBeDisplayed, String elementXpath) {
+
+		ExpectedCondition<?> expectedCondition = originalExpectedCondition;
+
+		if (originalExpectedCondition instanceof BrowserSideCondition) {
+
+			if (elementMustBeDisplayed) {
+				expectedCondition = BrowserSideCondition.and((BrowserSideCondition) originalExpectedCondition,
+						BrowserSideCondition.elementDisplayed(elementXpath));
+			}
+		}
+		else {
+			expectedCondition = ifNecessaryExpectElementDisplayed(originalExpectedCondition, elementMustBeDisplayed,
+					By.xpath(elementXpath));
+		}
+
+		return expectedCondition;
+	}
+
+	/**
+	 * Returns a condition which expects the original condition not to be met. If the original condition is a {@link
+	 * BrowserSideCondition}, the returned condition is also a {@link BrowserSideCondition}.
+	 */
+	public static ExpectedCondition<?> not(ExpectedCondition<?> originalExpectedCondition) {
+
+		ExpectedCondition<?> expectedCondition;
+
+		if (originalExpectedCondition instanceof BrowserSideCondition) {
+			expectedCondition = BrowserSideCondition.not((BrowserSideCondition) originalExpectedCondition);
+		}
+		else {
+			expectedCondition = ExpectedConditions.not(originalExpectedCondition);
+		}
+
+		return expectedCondition;
+	}
 }
@@ -86,6 +86,21 @@ public class HtmlUnitDriverLiferayFacesImpl extends HtmlUnitDriver {
 		}
 	}
 
+	/**
+	 * Waits for the background JavaScript jobs (for example timers and asynchronous XMLHttpRequests) of all windows to
+	 * complete.
+	 *
+	 * @param   timeOutInMillis  The maximum time to wait.
+	 *
+	 * @return  The number of jobs which are still pending after the wait.
+	 */
+	public int waitForBackgroundJavaScript(long timeOutInMillis) {
+
+		WebClient webClient = getWebClient();
+
+		return webClient.waitForBackgroundJavaScript(timeOutInMillis);
+	}
+
 	@Override
 	protected WebClient modifyWebClient(WebClient initialWebClient) {
 
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser.internal;
+
+import java.util.List;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.NotFoundException;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.support.ui.ExpectedCondition;
+
+
+/**
+ * Expects a condition to be met or the page to have settled (in other words, no DOM mutations have occurred for the
+ * settle time and no Ajax requests are in flight). Once the page has settled, a condition which is not met is not
+ * expected to become met without further interaction, so waiting for the rest of the time out is pointless. Use
+ * {@link #isMet()} to determine whether the condition was met.
+ *
+ * @author  Kyle Stiemann
+ */
+public final class SettledExpectedCondition implements ExpectedCondition<Boolean> {
+
+	// Private Constants
+	private static final String INSTALL_MUTATION_TRACKER_SCRIPT =
+		"var tracker = window.liferayFacesTestMutationTracker;" + "if (!tracker) {" +
+		"tracker = window.liferayFacesTestMutationTracker = {lastMutation: Date.now()};" +
+		"new MutationObserver(function() { tracker.lastMutation = Date.now(); }).observe(document, " +
+		"{attributes: true, characterData: true, childList: true, subtree: true}); }";
+	private static final String GET_QUIET_TIME_AND_AJAX_REQUESTS_IN_FLIGHT_SCRIPT = INSTALL_MUTATION_TRACKER_SCRIPT +
+		"var ajaxRequestTracker = window.liferayFacesTestAjaxRequestTracker;" +
+		"return [Date.now() - tracker.lastMutation, ajaxRequestTracker ? ajaxRequestTracker.inFlight : 0];";
+
+	// Private Final Data Members
+	private final ExpectedCondition<?> expectedCondition;
+	private final long settleTimeInMillis;
+
+	// Private Data Members
+	private boolean ajaxRequestTrackerInstalled;
+	private boolean met;
+
+	public SettledExpectedCondition(ExpectedCondition<?> expectedCondition, long settleTimeInMillis) {
+
+		this.expectedCondition = expectedCondition;
+		this.settleTimeInMillis = settleTimeInMillis;
+	}
+
+	/**
+	 * Installs the DOM mutation tracker and the Ajax request tracker in the current window (if they are not already
+	 * installed). The trackers must be installed before the action whose effects are asserted, since DOM mutations and
+	 * Ajax requests which begin before the trackers are installed cannot be observed. If the trackers are not installed
+	 * before the action, they are installed the first time this condition is checked and the page is only considered
+	 * settled once it has been idle for the settle time after that.
+	 */
+	public static void installTrackers(JavascriptExecutor javascriptExecutor) {
+
+		javascriptExecutor.executeScript(INSTALL_MUTATION_TRACKER_SCRIPT);
+		AjaxRerenderCompleted.installAjaxRequestTracker(javascriptExecutor);
+	}
+
+	@Override
+	public Boolean apply(WebDriver webDriver) {
+
+		try {
+
+			Object result = expectedCondition.apply(webDriver);
+			met = (result != null) && !Boolean.FALSE.equals(result);
+		}
+		catch (NotFoundException | StaleElementReferenceException e) {
+			met = false;
+		}
+
+		if (met) {
+			return true;
+		}
+
+		JavascriptExecutor javascriptExecutor = (JavascriptExecutor) webDriver;
+
+		if (!ajaxRequestTrackerInstalled) {
+
+			AjaxRerenderCompleted.installAjaxRequestTracker(javascriptExecutor);
+			ajaxRequestTrackerInstalled = true;
+		}
+
+		List<?> quietTimeAndAjaxRequestsInFlight = (List<?>) javascriptExecutor.executeScript(
+				GET_QUIET_TIME_AND_AJAX_REQUESTS_IN_FLIGHT_SCRIPT);
+		long quietTimeInMillis = ((Number) quietTimeAndAjaxRequestsInFlight.get(0)).longValue();
+		long ajaxRequestsInFlight = ((Number) quietTimeAndAjaxRequestsInFlight.get(1)).longValue();
+
+		return (quietTimeInMillis >= settleTimeInMillis) && (ajaxRequestsInFlight == 0);
+	}
+
+	public long getSettleTimeInMillis() {
+		return settleTimeInMillis;
+	}
+
+	/**
+	 * Returns true if the condition was met the last time this condition was checked.
+	 */
+	public boolean isMet() {
+		return met;
+	}
+
+	@Override
+	public String toString() {
+		return expectedCondition + " or the page to settle for " + settleTimeInMillis + "ms";
+	}
+}
@@ -0,0 +1,303 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.openqa.selenium.Cookie;
+
+import com.liferay.faces.test.selenium.util.ClosableUtil;
+
+
+/**
+ * The cookies, local storage, and session storage of a single origin. The storage state is stored as a plain
+ * properties file rather than a serialized object so that reading a file never instantiates arbitrary classes. Since
+ * the file contains live session cookies, it (and the directory that contains it) may only be accessed by its owner.
+ *
+ * @author  Kyle Stiemann
+ */
+public final class StorageState {
+
+	// Private Constants
+	private static final String COOKIE_PREFIX = "cookie.";
+	private static final String LOCAL_STORAGE_PREFIX = "localStorage.";
+	private static final String ORIGIN = "origin";
+	private static final Set<PosixFilePermission> OWNER_ONLY_DIRECTORY_PERMISSIONS = Collections.unmodifiableSet(
+			PosixFilePermissions.fromString("rwx------"));
+	private static final Set<PosixFilePermission> OWNER_ONLY_FILE_PERMISSIONS = Collections.unmodifiableSet(
+			PosixFilePermissions.fromString("rw-------"));
+	private static final String SESSION_STORAGE_PREFIX = "sessionStorage.";
+
+	// Private Final Data Members
+	private final Set<Cookie> cookies;
+	private final Map<String, String> localStorage;
+	private final String origin;
+	private final Map<String, String> sessionStorage;
+
+	public StorageState(String origin, Set<Cookie> cookies, Map<String, String> localStorage,
+		Map<String, String> sessionStorage) {
+
+		this.origin = origin;
+		this.cookies = Collections.unmodifiableSet(new HashSet<Cookie>(cookies));
+		this.localStorage = Collections.unmodifiableMap(new HashMap<String, String>(localStorage));
+		this.sessionStorage = Collections.unmodifiableMap(new HashMap<String, String>(sessionStorage));
+	}
+
+	/**
+	 * Reads the storage state from the path.
+	 *
+	 * @throws  IOException  If the file cannot be read, is invalid, or may have been written by another user.
+	 */
+	public static StorageState read(Path path) throws IOException {
+
+		checkOwnerOnly(path);
+
+		Properties properties = new Properties();
+		InputStream inputStream = null;
+
+		try {
+
+			inputStream = Files.newInputStream(path);
+			properties.load(inputStream);
+		}
+		finally {
+			ClosableUtil.close(inputStream);
+		}
+
+		String origin = properties.getProperty(ORIGIN);
+
+		if (origin == null) {
+			throw new IOException("Invalid storage state file: " + path);
+		}
+
+		Set<Cookie> cookies = new HashSet<Cookie>();
+		Map<String, String> localStorage = new HashMap<String, String>();
+		Map<String, String> sessionStorage = new HashMap<String, String>();
+
+		for (String key : properties.stringPropertyNames()) {
+
+			if (key.startsWith(LOCAL_STORAGE_PREFIX)) {
+				localStorage.put(key.substring(LOCAL_STORAGE_PREFIX.length()), properties.getProperty(key));
+			}
+			else if (key.startsWith(SESSION_STORAGE_PREFIX)) {
+				sessionStorage.put(key.substring(SESSION_STORAGE_PREFIX.length()), properties.getProperty(key));
+			}
+			else if (key.startsWith(COOKIE_PREFIX) && key.endsWith(".name")) {
+
+				String cookiePrefix = key.substring(0, key.length() - "name".length());
+				cookies.add(readCookie(properties, cookiePrefix, path));
+			}
+		}
+
+		return new StorageState(origin, cookies, localStorage, sessionStorage);
+	}
+
+	/**
+	 * Throws an exception unless the file is owned by the current user and cannot be accessed by other users. The
+	 * check is skipped on file systems which do not support POSIX permissions.
+	 */
+	private static void checkOwnerOnly(Path path) throws IOException {
+
+		PosixFileAttributeView posixFileAttributeView = Files.getFileAttributeView(path,
+				PosixFileAttributeView.class);
+
+		if (posixFileAttributeView != null) {
+
+			PosixFileAttributes posixFileAttributes = posixFileAttributeView.readAttributes();
+			String userName = System.getProperty("user.name");
+
+			if (!posixFileAttributes.owner().getName().equals(userName) ||
+					!OWNER_ONLY_FILE_PERMISSIONS.containsAll(posixFileAttributes.permissions())) {
+				throw new IOException("The storage state file " + path +
+					" is not owned by the current user or is accessible by other users.");
+			}
+		}
+	}
+
+	/**
+	 * Creates the directory (and its parent directories) if it does not exist. Only the directory itself is restricted
+	 * to its owner, and only if it is created here, so that the permissions of existing (potentially shared or
+	 * user-configured) directories are left alone.
+	 */
+	private static void createOwnerOnlyDirectories(Path directory) throws IOException {
+
+		if (!Files.isDirectory(directory)) {
+
+			Path parentDirectory = directory.getParent();
+
+			if (parentDirectory != null) {
+				Files.createDirectories(parentDirectory);
+			}
+
+			try {
+
+				Files.createDirectory(directory);
+				setOwnerOnlyPermissions(directory, OWNER_ONLY_DIRECTORY_PERMISSIONS);
+			}
+			catch (FileAlreadyExistsException e) {
+				// Another surefire fork created the directory first.
+			}
+		}
+	}
+
+	private static Cookie readCookie(Properties properties, String cookiePrefix, Path path) throws IOException {
+
+		String name = properties.getProperty(cookiePrefix + "name");
+		String value = properties.getProperty(cookiePrefix + "value");
+
+		if (value == null) {
+			throw new IOException("Invalid cookie " + name + " in storage state file: " + path);
+		}
+
+		Cookie.Builder cookieBuilder = new Cookie.Builder(name, value);
+		cookieBuilder.domain(properties.getProperty(cookiePrefix + "domain"));
+		cookieBuilder.path(properties.getProperty(cookiePrefix + "path"));
+
+		String expiry = properties.getProperty(cookiePrefix + "expiry");
+
+		try {
+
+			if (expiry != null) {
+				cookieBuilder.expiresOn(new Date(Long.parseLong(expiry)));
+			}
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("Invalid cookie " + name + " in storage state file: " + path, e);
+		}
+
+		cookieBuilder.isSecure(Boolean.valueOf(properties.getProperty(cookiePrefix + "secure")));
+		cookieBuilder.isHttpOnly(Boolean.valueOf(properties.getProperty(cookiePrefix + "httpOnly")));
+
+		return cookieBuilder.build();
+	}
+
+	private static void setOwnerOnlyPermissions(Path path, Set<PosixFilePermission> permissions) throws IOException {
+
+		if (Files.getFileAttributeView(path, PosixFileAttributeView.class) != null) {
+			Files.setPosixFilePermissions(path, permissions);
+		}
+	}
+
+	public Set<Cookie> getCookies() {
+		return cookies;
+	}
+
+	public Map<String, String> getLocalStorage() {
+		return localStorage;
+	}
+
+	public String getOrigin() {
+		return origin;
+	}
+
+	public Map<String, String> getSessionStorage() {
+		return sessionStorage;
+	}
+
+	/**
+	 * Writes the storage state to a temporary file in the same directory as the path and then atomically moves it to
+	 * the path, so that concurrent readers (for example other surefire forks) never see a partially written file. The
+	 * directory and file are only accessible by the current user.
+	 */
+	public void write(Path path) throws IOException {
+
+		Properties properties = new Properties();
+		properties.setProperty(ORIGIN, origin);
+
+		int i = 0;
+
+		for (Cookie cookie : cookies) {
+
+			String cookiePrefix = COOKIE_PREFIX + i + ".";
+			properties.setProperty(cookiePrefix + "name", cookie.getName());
+			properties.setProperty(cookiePrefix + "value", cookie.getValue());
+
+			if (cookie.getDomain() != null) {
+				properties.setProperty(cookiePrefix + "domain", cookie.getDomain());
+			}
+
+			if (cookie.getPath() != null) {
+				properties.setProperty(cookiePrefix + "path", cookie.getPath());
+			}
+
+			if (cookie.getExpiry() != null) {
+				properties.setProperty(cookiePrefix + "expiry", String.valueOf(cookie.getExpiry().getTime()));
+			}
+
+			properties.setProperty(cookiePrefix + "secure", String.valueOf(cookie.isSecure()));
+			properties.setProperty(cookiePrefix + "httpOnly", String.valueOf(cookie.isHttpOnly()));
+			i++;
+		}
+
+		for (Map.Entry<String, String> item : localStorage.entrySet()) {
+			properties.setProperty(LOCAL_STORAGE_PREFIX + item.getKey(), item.getValue());
+		}
+
+		for (Map.Entry<String, String> item : sessionStorage.entrySet()) {
+			properties.setProperty(SESSION_STORAGE_PREFIX + item.getKey(), item.getValue());
+		}
+
+		Path directory = path.toAbsolutePath().getParent();
+		createOwnerOnlyDirectories(directory);
+
+		Path temporaryPath = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+
+		try {
+
+			setOwnerOnlyPermissions(temporaryPath, OWNER_ONLY_FILE_PERMISSIONS);
+
+			OutputStream outputStream = null;
+
+			try {
+
+				outputStream = Files.newOutputStream(temporaryPath);
+				properties.store(outputStream, null);
+			}
+			finally {
+				ClosableUtil.close(outputStream);
+			}
+
+			try {
+				Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temporaryPath);
+		}
+	}
+}
@@ -0,0 +1,327 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.liferay.faces.test.selenium.browser.TestUtil;
+import com.liferay.faces.test.selenium.util.ClosableUtil;
+
+
+/**
+ * Records how long waits for each condition take and derives tighter time outs from those durations. The durations
+ * are stored per container in a properties file (in the <code>
+ * "integration.browser.driver.wait.calibration.directory"</code> directory) so that they are available to later test
+ * runs. Once enough durations have been recorded for a condition, its time out is the 95th percentile of the durations
+ * plus a margin (the <code>"integration.browser.driver.wait.calibration.margin"</code> system property in
+ * milliseconds), but never more than the configured wait time out.
+ *
+ * @author  Kyle Stiemann
+ */
+public final class WaitCalibrationStore {
+
+	// Logger
+	private static final Logger logger = LoggerFactory.getLogger(WaitCalibrationStore.class);
+
+	// Private Constants
+	private static final long MARGIN_IN_MILLIS = Long.parseLong(TestUtil.getSystemPropertyOrDefault(
+				"integration.browser.driver.wait.calibration.margin", "1000"));
+	private static final int MAX_SAMPLES = 50;
+	private static final int MIN_SAMPLES = 10;
+	private static final double PERCENTILE = 0.95;
+
+	// Private Final Data Members
+	private final Map<String, List<Long>> newSamples = new HashMap<String, List<Long>>();
+	private final Path path;
+	private final Map<String, List<Long>> samples;
+
+	/* package-private */ WaitCalibrationStore(Path path) {
+
+		this.path = path;
+
+		Map<String, List<Long>> samples = Collections.emptyMap();
+
+		try {
+			samples = read(path);
+		}
+		catch (IOException e) {
+			logger.warn("Unable to read wait calibration file {}: {}", path, e.getMessage());
+		}
+
+		this.samples = new HashMap<String, List<Long>>(samples);
+	}
+
+	public static WaitCalibrationStore getInstance() {
+		return WaitCalibrationStoreHolder.INSTANCE;
+	}
+
+	/**
+	 * Returns true if durations may be recorded for the condition. Conditions (including lambdas) which only have the
+	 * default {@link Object#toString()} cannot be told apart between test runs, so their durations are not recorded.
+	 */
+	public static boolean isCalibratable(String conditionKey) {
+		return (conditionKey != null) && !conditionKey.matches("^[\\w.$/]+@[0-9a-f]+$");
+	}
+
+	private static Map<String, List<Long>> read(Path path) throws IOException {
+
+		Map<String, List<Long>> samples = new HashMap<String, List<Long>>();
+
+		if (Files.exists(path)) {
+
+			Properties properties = new Properties();
+			InputStream inputStream = null;
+
+			try {
+
+				inputStream = Files.newInputStream(path);
+				properties.load(inputStream);
+			}
+			finally {
+				ClosableUtil.close(inputStream);
+			}
+
+			for (String conditionKey : properties.stringPropertyNames()) {
+
+				List<Long> conditionSamples = new ArrayList<Long>();
+
+				for (String sample : properties.getProperty(conditionKey).split(",")) {
+
+					try {
+						conditionSamples.add(Long.parseLong(sample.trim()));
+					}
+					catch (NumberFormatException e) {
+						// Ignore corrupt samples.
+					}
+				}
+
+				samples.put(conditionKey, conditionSamples);
+			}
+		}
+
+		return samples;
+	}
+
+	private static void trim(List<Long> conditionSamples) {
+
+		while (conditionSamples.size() > MAX_SAMPLES) {
+			conditionSamples.remove(0);
+		}
+	}
+
+	/**
+	 * Returns the calibrated time out for the condition or the configured time out if not enough durations have been
+	 * recorded for the condition yet.
+	 */
+	public synchronized long getTimeOutInMillis(String conditionKey, long configuredTimeOutInMillis) {
+
+		List<Long> conditionSamples = samples.get(conditionKey);
+
+		if ((conditionSamples == null) || (conditionSamples.size() < MIN_SAMPLES)) {
+			return configuredTimeOutInMillis;
+		}
+
+		List<Long> sortedSamples = new ArrayList<Long>(conditionSamples);
+		Collections.sort(sortedSamples);
+
+		int percentileIndex = (int) Math.ceil(PERCENTILE * sortedSamples.size()) - 1;
+		long percentileInMillis = sortedSamples.get(Math.max(0, percentileIndex));
+
+		return Math.min(configuredTimeOutInMillis, percentileInMillis + MARGIN_IN_MILLIS);
+	}
+
+	/**
+	 * Records the duration of a successful wait for the condition.
+	 */
+	public synchronized void recordWait(String conditionKey, long waitTimeInMillis) {
+
+		if (isCalibratable(conditionKey)) {
+
+			List<Long> conditionSamples = samples.get(conditionKey);
+
+			if (conditionSamples == null) {
+
+				conditionSamples = new ArrayList<Long>();
+				samples.put(conditionKey, conditionSamples);
+			}
+
+			conditionSamples.add(waitTimeInMillis);
+			trim(conditionSamples);
+
+			List<Long> newConditionSamples = newSamples.get(conditionKey);
+
+			if (newConditionSamples == null) {
+
+				newConditionSamples = new ArrayList<Long>();
+				newSamples.put(conditionKey, newConditionSamples);
+			}
+
+			newConditionSamples.add(waitTimeInMillis);
+		}
+	}
+
+	/**
+	 * Merges the durations recorded during this run into the calibration file. The file is locked while it is merged
+	 * and then atomically replaced, so concurrent runs (for example other surefire forks) neither lose each other's
+	 * durations nor see a partially written file.
+	 */
+	public synchronized void save() throws IOException {
+
+		if (newSamples.isEmpty()) {
+			return;
+		}
+
+		Path directory = path.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+
+		Path lockPath = directory.resolve(path.getFileName() + ".lock");
+		FileChannel lockChannel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+		try {
+
+			FileLock fileLock = lockChannel.lock();
+
+			try {
+
+				Map<String, List<Long>> mergedSamples = read(path);
+
+				for (Map.Entry<String, List<Long>> newSamplesEntry : newSamples.entrySet()) {
+
+					String conditionKey = newSamplesEntry.getKey();
+					List<Long> conditionSamples = mergedSamples.get(conditionKey);
+
+					if (conditionSamples == null) {
+
+						conditionSamples = new ArrayList<Long>();
+						mergedSamples.put(conditionKey, conditionSamples);
+					}
+
+					conditionSamples.addAll(newSamplesEntry.getValue());
+					trim(conditionSamples);
+				}
+
+				write(mergedSamples);
+				newSamples.clear();
+			}
+			finally {
+				fileLock.release();
+			}
+		}
+		finally {
+			ClosableUtil.close(lockChannel);
+		}
+	}
+
+	private void write(Map<String, List<Long>> samples) throws IOException {
+
+		Properties properties = new Properties();
+
+		for (Map.Entry<String, List<Long>> samplesEntry : samples.entrySet()) {
+
+			StringBuilder buf = new StringBuilder();
+
+			for (Long sample : samplesEntry.getValue()) {
+
+				if (buf.length() > 0) {
+					buf.append(",");
+				}
+
+				buf.append(sample);
+			}
+
+			properties.setProperty(samplesEntry.getKey(), buf.toString());
+		}
+
+		Path temporaryPath = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(),
+				".tmp");
+
+		try {
+
+			OutputStream outputStream = null;
+
+			try {
+
+				outputStream = Files.newOutputStream(temporaryPath);
+				properties.store(outputStream, "Wait durations in milliseconds");
+			}
+			finally {
+				ClosableUtil.close(outputStream);
+			}
+
+			try {
+				Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			Files.deleteIfExists(temporaryPath);
+		}
+	}
+
+	private static final class WaitCalibrationStoreHolder {
+
+		// Private Constants
+		private static final WaitCalibrationStore INSTANCE;
+
+		static {
+
+			String defaultDirectory = Paths.get(System.getProperty("java.io.tmpdir"),
+					"liferay-faces-test-wait-calibration").toString();
+			String directory = TestUtil.getSystemPropertyOrDefault(
+					"integration.browser.driver.wait.calibration.directory", defaultDirectory);
+			String fileName = TestUtil.getContainer().replaceAll("[^A-Za-z0-9._-]", "_") + ".properties";
+			final WaitCalibrationStore waitCalibrationStore = new WaitCalibrationStore(Paths.get(directory,
+						fileName));
+
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+
+					@Override
+					public void run() {
+
+						try {
+							waitCalibrationStore.save();
+						}
+						catch (IOException e) {
+							logger.warn("Unable to save wait calibration file: {}", e.getMessage());
+						}
+					}
+				});
+
+			INSTANCE = waitCalibrationStore;
+		}
+	}
+}
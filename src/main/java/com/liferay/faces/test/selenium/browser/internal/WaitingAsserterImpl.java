@@ -15,15 +15,19 @@
  */
 package com.liferay.faces.test.selenium.browser.internal;
 
-import org.openqa.selenium.By;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openqa.selenium.JavascriptExecutor;
 import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
 import org.openqa.selenium.internal.BuildInfo;
 import org.openqa.selenium.support.ui.ExpectedCondition;
-import org.openqa.selenium.support.ui.ExpectedConditions;
 
 import com.liferay.faces.test.selenium.browser.BrowserDriver;
+import com.liferay.faces.test.selenium.browser.TestUtil;
 import com.liferay.faces.test.selenium.browser.WaitingAsserter;
-import com.liferay.faces.test.selenium.expectedconditions.ElementEnabled;
 
 
 /**
@@ -32,6 +36,7 @@ import com.liferay.faces.test.selenium.expectedconditions.ElementEnabled;
 public class WaitingAsserterImpl implements WaitingAsserter {
 
 	// Private Data Members
+	private List<ExpectedCondition<?>> batchedExpectedConditions;
 	private BrowserDriver browserDriver;
 
 	public WaitingAsserterImpl(BrowserDriver browserDriver) {
@@ -73,7 +78,7 @@ public class WaitingAsserterImpl implements WaitingAsserter {
 
 	@Override
 	public void assertElementDisplayed(String elementXpath) {
-		assertTrue(ExpectedConditions.visibilityOfElementLocated(By.xpath(elementXpath)));
+		assertTrue(BrowserSideCondition.elementDisplayed(elementXpath));
 	}
 
 	@Override
@@ -83,37 +88,29 @@ public class WaitingAsserterImpl implements WaitingAsserter {
 
 	@Override
 	public void assertElementEnabled(String elementXpath, boolean elementMustBeDisplayed) {
-
-		By byXpath = By.xpath(elementXpath);
 		ExpectedCondition<?> expectedCondition = ExpectedConditionsUtil.ifNecessaryExpectElementDisplayed(
-				new ElementEnabled(elementXpath), elementMustBeDisplayed, byXpath);
+				BrowserSideCondition.elementEnabled(elementXpath), elementMustBeDisplayed, elementXpath);
 		assertTrue(expectedCondition);
 	}
 
 	@Override
 	public void assertElementNotDisplayed(String elementXpath) {
-		assertTrue(ExpectedConditions.invisibilityOfElementLocated(By.xpath(elementXpath)));
+		assertNegative(BrowserSideCondition.elementNotDisplayed(elementXpath));
 	}
 
 	@Override
 	public void assertElementNotPresent(String elementXpath) {
-		assertFalse(ExpectedConditions.presenceOfAllElementsLocatedBy(By.xpath(elementXpath)));
+		assertNegative(BrowserSideCondition.not(BrowserSideCondition.elementPresent(elementXpath)));
 	}
 
 	@Override
 	public void assertElementPresent(String elementXpath) {
-		assertTrue(ExpectedConditions.presenceOfElementLocated(By.xpath(elementXpath)));
+		assertTrue(BrowserSideCondition.elementPresent(elementXpath));
 	}
 
 	@Override
 	public void assertFalse(ExpectedCondition expectedCondition) {
-
-		try {
-			browserDriver.waitFor(ExpectedConditions.not(expectedCondition));
-		}
-		catch (TimeoutException e) {
-			throw createAssertionErrorWithoutExtraInfo(e);
-		}
+		assertTrue(ExpectedConditionsUtil.not(expectedCondition));
 	}
 
 	@Override
@@ -124,12 +121,10 @@ public class WaitingAsserterImpl implements WaitingAsserter {
 	@Override
 	public void assertTextNotPresentInElement(String text, String elementXpath, boolean elementMustBeDisplayed) {
 
-		By byXpath = By.xpath(elementXpath);
-		ExpectedCondition<?> expectedCondition = ExpectedConditions.not(ExpectedConditions
-				.textToBePresentInElementLocated(byXpath, text));
-		expectedCondition = ExpectedConditionsUtil.ifNecessaryExpectElementDisplayed(expectedCondition,
-				elementMustBeDisplayed, byXpath);
-		assertTrue(expectedCondition);
+		ExpectedCondition<?> expectedCondition = ExpectedConditionsUtil.ifNecessaryExpectElementDisplayed(
+				BrowserSideCondition.not(BrowserSideCondition.textPresentInElement(text, elementXpath)),
+				elementMustBeDisplayed, elementXpath);
+		assertNegative(expectedCondition);
 	}
 
 	@Override
@@ -139,11 +134,8 @@ public class WaitingAsserterImpl implements WaitingAsserter {
 
 	@Override
 	public void assertTextPresentInElement(String text, String elementXpath, boolean elementMustBeDisplayed) {
-
-		By byXpath = By.xpath(elementXpath);
-		ExpectedCondition<?> expectedCondition = ExpectedConditions.textToBePresentInElementLocated(byXpath, text);
-		expectedCondition = ExpectedConditionsUtil.ifNecessaryExpectElementDisplayed(expectedCondition,
-				elementMustBeDisplayed, byXpath);
+		ExpectedCondition<?> expectedCondition = ExpectedConditionsUtil.ifNecessaryExpectElementDisplayed(
+				BrowserSideCondition.textPresentInElement(text, elementXpath), elementMustBeDisplayed, elementXpath);
 		assertTrue(expectedCondition);
 	}
 
@@ -154,17 +146,22 @@ public class WaitingAsserterImpl implements WaitingAsserter {
 
 	@Override
 	public void assertTextPresentInElementValue(String text, String elementXpath, boolean elementMustBeDisplayed) {
-
-		By byXpath = By.xpath(elementXpath);
-		ExpectedCondition<?> expectedCondition = ExpectedConditions.textToBePresentInElementValue(byXpath, text);
-		expectedCondition = ExpectedConditionsUtil.ifNecessaryExpectElementDisplayed(expectedCondition,
-				elementMustBeDisplayed, byXpath);
+		ExpectedCondition<?> expectedCondition = ExpectedConditionsUtil.ifNecessaryExpectElementDisplayed(
+				BrowserSideCondition.textPresentInElementValue(text, elementXpath), elementMustBeDisplayed,
+				elementXpath);
 		assertTrue(expectedCondition);
 	}
 
 	@Override
 	public void assertTrue(ExpectedCondition expectedCondition) {
 
+		if (batchedExpectedConditions != null) {
+
+			batchedExpectedConditions.add(expectedCondition);
+
+			return;
+		}
+
 		try {
 			browserDriver.waitFor(expectedCondition);
 		}
@@ -172,4 +169,81 @@ public class WaitingAsserterImpl implements WaitingAsserter {
 			throw createAssertionErrorWithoutExtraInfo(e);
 		}
 	}
+
+	@Override
+	public void beginBatch() {
+
+		if (batchedExpectedConditions != null) {
+			throw new IllegalStateException("A batch has already been begun.");
+		}
+
+		batchedExpectedConditions = new ArrayList<ExpectedCondition<?>>();
+	}
+
+	@Override
+	public void endBatch() {
+
+		if (batchedExpectedConditions == null) {
+			throw new IllegalStateException("No batch has been begun.");
+		}
+
+		BatchedExpectedCondition batchedExpectedCondition = new BatchedExpectedCondition(batchedExpectedConditions);
+		int batchSize = batchedExpectedConditions.size();
+		batchedExpectedConditions = null;
+
+		try {
+			browserDriver.waitFor(batchedExpectedCondition);
+		}
+		catch (TimeoutException e) {
+
+			List<ExpectedCondition<?>> unmetExpectedConditions = batchedExpectedCondition.getUnmetExpectedConditions();
+			StringBuilder buf = new StringBuilder();
+			buf.append(unmetExpectedConditions.size());
+			buf.append(" of ");
+			buf.append(batchSize);
+			buf.append(" batched assertions failed:");
+
+			for (ExpectedCondition<?> unmetExpectedCondition : unmetExpectedConditions) {
+
+				buf.append("\nExpected condition failed: waiting for ");
+				buf.append(unmetExpectedCondition);
+			}
+
+			throw new AssertionError(buf.toString(), e);
+		}
+	}
+
+	/**
+	 * Asserts a negative condition (for example that an element is not displayed). If a settle time is configured (see
+	 * {@link TestUtil#getNegativeAssertionSettleTime()}), the assertion fails as soon as the page has been idle for the
+	 * settle time without the condition being met rather than after the full wait time out.
+	 */
+	private void assertNegative(ExpectedCondition<?> expectedCondition) {
+
+		long settleTimeInMillis = TestUtil.getNegativeAssertionSettleTime();
+		WebDriver webDriver = browserDriver.getWebDriver();
+
+		if ((batchedExpectedConditions != null) || (settleTimeInMillis <= 0) ||
+				!(webDriver instanceof JavascriptExecutor) || (webDriver instanceof HtmlUnitDriver)) {
+
+			assertTrue(expectedCondition);
+
+			return;
+		}
+
+		SettledExpectedCondition settledExpectedCondition = new SettledExpectedCondition(expectedCondition,
+				settleTimeInMillis);
+
+		try {
+			browserDriver.waitFor(settledExpectedCondition);
+		}
+		catch (TimeoutException e) {
+			throw createAssertionErrorWithoutExtraInfo(e);
+		}
+
+		if (!settledExpectedCondition.isMet()) {
+			throw new AssertionError("Expected condition failed: waiting for " + expectedCondition +
+				" (the page was idle for " + settleTimeInMillis + "ms without the condition being met)");
+		}
+	}
 }
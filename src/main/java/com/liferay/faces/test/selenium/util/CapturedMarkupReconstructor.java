@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Rebuilds the full markup of a capture which was stored as a diff (a <code>.html.diff</code> file, see {@link
+ * MarkupDiffUtil}) by following the chain of diffs back to a fully captured <code>.html</code> file in the same
+ * directory. Run it from the command line with:
+ *
+ * <pre>java -cp [classpath] com.liferay.faces.test.selenium.util.CapturedMarkupReconstructor [capture].html.diff
+ * [output file]</pre>
+ *
+ * <p>If no output file is specified, the markup is written to the capture's path without the <code>.diff</code>
+ * extension.</p>
+ *
+ * @author  Kyle Stiemann
+ */
+public final class CapturedMarkupReconstructor {
+
+	private CapturedMarkupReconstructor() {
+		throw new AssertionError();
+	}
+
+	public static void main(String[] args) throws IOException {
+
+		if ((args.length < 1) || (args.length > 2)) {
+
+			System.err.println("Usage: java " + CapturedMarkupReconstructor.class.getName() +
+				" <capture>.html.diff [output file]");
+			System.exit(1);
+		}
+
+		Path path = Paths.get(args[0]);
+		Path outputPath;
+
+		if (args.length > 1) {
+			outputPath = Paths.get(args[1]);
+		}
+		else {
+
+			String fileName = path.getFileName().toString();
+
+			if (fileName.endsWith(".diff")) {
+				fileName = fileName.substring(0, fileName.length() - ".diff".length());
+			}
+			else {
+				fileName = fileName + ".reconstructed.html";
+			}
+
+			outputPath = path.resolveSibling(fileName);
+		}
+
+		Files.write(outputPath, reconstruct(path).getBytes(StandardCharsets.UTF_8));
+		System.out.println("The markup of " + path + " has been written to " + outputPath);
+	}
+
+	/**
+	 * Returns the full markup of the capture. If the capture is not a diff, its content is returned as is.
+	 *
+	 * @throws  IOException  If a capture in the chain cannot be read or the chain contains a cycle.
+	 */
+	public static String reconstruct(Path path) throws IOException {
+
+		List<String> diffs = new ArrayList<String>();
+		Set<Path> visitedPaths = new HashSet<Path>();
+		String content = read(path);
+
+		while (MarkupDiffUtil.isDiff(content)) {
+
+			if (!visitedPaths.add(path.toAbsolutePath().normalize())) {
+				throw new IOException("The chain of markup diffs which includes " + path + " contains a cycle.");
+			}
+
+			diffs.add(content);
+
+			try {
+				path = path.resolveSibling(MarkupDiffUtil.getBaseName(content));
+			}
+			catch (IllegalArgumentException e) {
+				throw new IOException("Invalid markup diff in " + path + ".", e);
+			}
+
+			content = read(path);
+		}
+
+		String markup = content;
+
+		for (int i = diffs.size() - 1; i >= 0; i--) {
+
+			try {
+				markup = MarkupDiffUtil.applyDiff(markup, diffs.get(i));
+			}
+			catch (IllegalArgumentException e) {
+				throw new IOException("Unable to apply markup diff " + (diffs.size() - i) + " of the chain.", e);
+			}
+		}
+
+		return markup;
+	}
+
+	private static String read(Path path) throws IOException {
+		return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,377 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Creates and applies diffs between two versions of a document's markup. The markup is split into tokens which each
+ * begin with a tag (or are the text before the first tag), and the tokens are matched with a patience diff so that a
+ * change in one element of the document results in a small diff even if the markup contains few line breaks. A diff
+ * names the capture that it is based on so that a chain of diffs can be reconstructed (see {@link
+ * CapturedMarkupReconstructor}).
+ *
+ * <p>The diff format is a header line, a <code>base [base name]</code> line and a sequence of operations: <code>
+ * =[n]</code> copies the next n tokens of the base markup, <code>-[n]</code> skips the next n tokens of the base
+ * markup, and <code>+[n]</code> followed by a line break inserts the n characters that follow.</p>
+ *
+ * @author  Kyle Stiemann
+ */
+public final class MarkupDiffUtil {
+
+	// Private Constants
+	private static final String BASE_PREFIX = "base ";
+	private static final String HEADER = "liferay-faces-test-markup-diff 1";
+
+	private MarkupDiffUtil() {
+		throw new AssertionError();
+	}
+
+	/**
+	 * Applies the diff to the base markup and returns the resulting markup.
+	 *
+	 * @throws  IllegalArgumentException  If the diff is invalid or was not created from the base markup.
+	 */
+	public static String applyDiff(String baseMarkup, String diff) {
+
+		String[] baseTokens = tokenize(baseMarkup);
+		int baseIndex = 0;
+		int diffIndex = skipLine(diff, skipLine(diff, 0));
+		StringBuilder buf = new StringBuilder(baseMarkup.length());
+
+		while (diffIndex < diff.length()) {
+
+			char operation = diff.charAt(diffIndex);
+			int lineEnd = diff.indexOf('\n', diffIndex);
+
+			if (lineEnd < 0) {
+				throw new IllegalArgumentException("Invalid diff operation at character " + diffIndex + ".");
+			}
+
+			int count;
+
+			try {
+				count = Integer.parseInt(diff.substring(diffIndex + 1, lineEnd));
+			}
+			catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid diff operation at character " + diffIndex + ".", e);
+			}
+
+			diffIndex = lineEnd + 1;
+
+			if ((operation == '=') || (operation == '-')) {
+
+				if ((baseIndex + count) > baseTokens.length) {
+					throw new IllegalArgumentException("The diff refers to more tokens than the base markup has.");
+				}
+
+				if (operation == '=') {
+
+					for (int i = baseIndex; i < (baseIndex + count); i++) {
+						buf.append(baseTokens[i]);
+					}
+				}
+
+				baseIndex += count;
+			}
+			else if ((operation == '+') && ((diffIndex + count) < diff.length())) {
+
+				buf.append(diff, diffIndex, diffIndex + count);
+				diffIndex = diffIndex + count + 1;
+			}
+			else {
+				throw new IllegalArgumentException("Invalid diff operation at character " + diffIndex + ".");
+			}
+		}
+
+		if (baseIndex != baseTokens.length) {
+			throw new IllegalArgumentException("The diff does not cover all tokens of the base markup.");
+		}
+
+		return buf.toString();
+	}
+
+	/**
+	 * Returns a diff which transforms the base markup into the markup.
+	 *
+	 * @param  baseName    The name of the capture which contains the base markup (for example its file name).
+	 * @param  baseMarkup  The base markup.
+	 * @param  markup      The markup.
+	 */
+	public static String createDiff(String baseName, String baseMarkup, String markup) {
+
+		String[] baseTokens = tokenize(baseMarkup);
+		String[] tokens = tokenize(markup);
+		List<int[]> matches = new ArrayList<int[]>();
+		match(baseTokens, 0, baseTokens.length, tokens, 0, tokens.length, matches);
+		matches.add(new int[] { baseTokens.length, tokens.length });
+
+		StringBuilder buf = new StringBuilder();
+		buf.append(HEADER);
+		buf.append("\n");
+		buf.append(BASE_PREFIX);
+		buf.append(baseName);
+		buf.append("\n");
+
+		int baseIndex = 0;
+		int index = 0;
+		int unchangedCount = 0;
+
+		for (int[] match : matches) {
+
+			if ((match[0] > baseIndex) || (match[1] > index)) {
+
+				if (unchangedCount > 0) {
+
+					buf.append("=").append(unchangedCount).append("\n");
+					unchangedCount = 0;
+				}
+
+				if (match[0] > baseIndex) {
+					buf.append("-").append(match[0] - baseIndex).append("\n");
+				}
+
+				if (match[1] > index) {
+
+					StringBuilder insertedMarkup = new StringBuilder();
+
+					for (int i = index; i < match[1]; i++) {
+						insertedMarkup.append(tokens[i]);
+					}
+
+					buf.append("+").append(insertedMarkup.length()).append("\n");
+					buf.append(insertedMarkup);
+					buf.append("\n");
+				}
+			}
+
+			// The final match marks the end of both documents rather than a matching token.
+			if (match[0] < baseTokens.length) {
+				unchangedCount++;
+			}
+
+			baseIndex = match[0] + 1;
+			index = match[1] + 1;
+		}
+
+		if (unchangedCount > 0) {
+			buf.append("=").append(unchangedCount).append("\n");
+		}
+
+		return buf.toString();
+	}
+
+	/**
+	 * Returns the name of the capture that the diff is based on.
+	 *
+	 * @throws  IllegalArgumentException  If the diff is invalid.
+	 */
+	public static String getBaseName(String diff) {
+
+		if (!isDiff(diff)) {
+			throw new IllegalArgumentException("The markup diff does not start with \"" + HEADER + "\".");
+		}
+
+		int baseLineStart = skipLine(diff, 0);
+		int baseLineEnd = diff.indexOf('\n', baseLineStart);
+
+		if ((baseLineEnd < 0) || !diff.startsWith(BASE_PREFIX, baseLineStart)) {
+			throw new IllegalArgumentException("The markup diff does not name its base.");
+		}
+
+		return diff.substring(baseLineStart + BASE_PREFIX.length(), baseLineEnd);
+	}
+
+	/**
+	 * Returns true if the content is a diff created by {@link #createDiff(String, String, String)}.
+	 */
+	public static boolean isDiff(String content) {
+		return content.startsWith(HEADER + "\n");
+	}
+
+	/**
+	 * Returns the indexes of the values which form the longest strictly increasing subsequence of the values.
+	 */
+	private static List<Integer> getLongestIncreasingSubsequence(int[] values) {
+
+		int[] tailIndexes = new int[values.length];
+		int[] predecessorIndexes = new int[values.length];
+		int length = 0;
+
+		for (int i = 0; i < values.length; i++) {
+
+			int low = 0;
+			int high = length;
+
+			while (low < high) {
+
+				int middle = (low + high) >>> 1;
+
+				if (values[tailIndexes[middle]] < values[i]) {
+					low = middle + 1;
+				}
+				else {
+					high = middle;
+				}
+			}
+
+			predecessorIndexes[i] = (low > 0) ? tailIndexes[low - 1] : -1;
+			tailIndexes[low] = i;
+
+			if (low == length) {
+				length++;
+			}
+		}
+
+		Integer[] subsequence = new Integer[length];
+
+		for (int i = length - 1, index = (length > 0) ? tailIndexes[length - 1] : -1; i >= 0; i--) {
+
+			subsequence[i] = index;
+			index = predecessorIndexes[index];
+		}
+
+		return Arrays.asList(subsequence);
+	}
+
+	/**
+	 * Adds the indexes of matching tokens (in increasing order) to the matches.
+	 */
+	private static void match(String[] baseTokens, int baseStart, int baseEnd, String[] tokens, int start, int end,
+		List<int[]> matches) {
+
+		// Match the common prefix and suffix.
+		while ((baseStart < baseEnd) && (start < end) && baseTokens[baseStart].equals(tokens[start])) {
+
+			matches.add(new int[] { baseStart, start });
+			baseStart++;
+			start++;
+		}
+
+		int suffixLength = 0;
+
+		while ((baseStart < (baseEnd - suffixLength)) && (start < (end - suffixLength)) &&
+				baseTokens[baseEnd - suffixLength - 1].equals(tokens[end - suffixLength - 1])) {
+			suffixLength++;
+		}
+
+		baseEnd -= suffixLength;
+		end -= suffixLength;
+
+		// Anchor the rest on the tokens which occur exactly once in both ranges, keeping the longest sequence of them
+		// which is in the same order in both ranges.
+		Map<String, int[]> tokenOccurrences = new HashMap<String, int[]>();
+
+		for (int i = baseStart; i < baseEnd; i++) {
+
+			int[] occurrences = tokenOccurrences.get(baseTokens[i]);
+
+			if (occurrences == null) {
+
+				occurrences = new int[] { 0, i, 0, -1 };
+				tokenOccurrences.put(baseTokens[i], occurrences);
+			}
+
+			occurrences[0]++;
+		}
+
+		for (int i = start; i < end; i++) {
+
+			int[] occurrences = tokenOccurrences.get(tokens[i]);
+
+			if (occurrences != null) {
+
+				occurrences[2]++;
+				occurrences[3] = i;
+			}
+		}
+
+		List<int[]> uniqueMatches = new ArrayList<int[]>();
+
+		for (int i = baseStart; i < baseEnd; i++) {
+
+			int[] occurrences = tokenOccurrences.get(baseTokens[i]);
+
+			if ((occurrences[0] == 1) && (occurrences[2] == 1)) {
+				uniqueMatches.add(new int[] { i, occurrences[3] });
+			}
+		}
+
+		if (!uniqueMatches.isEmpty()) {
+
+			int[] uniqueMatchIndexes = new int[uniqueMatches.size()];
+
+			for (int i = 0; i < uniqueMatchIndexes.length; i++) {
+				uniqueMatchIndexes[i] = uniqueMatches.get(i)[1];
+			}
+
+			int nextBaseStart = baseStart;
+			int nextStart = start;
+
+			for (Integer anchorIndex : getLongestIncreasingSubsequence(uniqueMatchIndexes)) {
+
+				int[] anchor = uniqueMatches.get(anchorIndex);
+				match(baseTokens, nextBaseStart, anchor[0], tokens, nextStart, anchor[1], matches);
+				matches.add(anchor);
+				nextBaseStart = anchor[0] + 1;
+				nextStart = anchor[1] + 1;
+			}
+
+			match(baseTokens, nextBaseStart, baseEnd, tokens, nextStart, end, matches);
+		}
+
+		for (int i = 0; i < suffixLength; i++) {
+			matches.add(new int[] { baseEnd + i, end + i });
+		}
+	}
+
+	private static int skipLine(String content, int index) {
+
+		int lineEnd = content.indexOf('\n', index);
+
+		if (lineEnd < 0) {
+			throw new IllegalArgumentException("Invalid markup diff.");
+		}
+
+		return lineEnd + 1;
+	}
+
+	private static String[] tokenize(String markup) {
+
+		List<String> tokens = new ArrayList<String>();
+		int tokenStart = 0;
+
+		for (int i = 1; i < markup.length(); i++) {
+
+			if (markup.charAt(i) == '<') {
+
+				tokens.add(markup.substring(tokenStart, i));
+				tokenStart = i;
+			}
+		}
+
+		if (!markup.isEmpty()) {
+			tokens.add(markup.substring(tokenStart));
+		}
+
+		return tokens.toArray(new String[tokens.size()]);
+	}
+}
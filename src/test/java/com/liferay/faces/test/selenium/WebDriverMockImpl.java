@@ -18,12 +18,15 @@ package com.liferay.faces.test.selenium;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.openqa.selenium.Alert;
 import org.openqa.selenium.By;
 import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.NoSuchWindowException;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 
@@ -33,8 +36,17 @@ import org.openqa.selenium.WebElement;
  */
 public class WebDriverMockImpl implements WebDriver {
 
+	// Private Constants
+	private static final String INITIAL_WINDOW_HANDLE = "window-0";
+
 	// Private Final Data Members
 	private final Map<String, WebElement> webElements;
+	private final Set<String> windowHandles = new LinkedHashSet<String>(Arrays.asList(INITIAL_WINDOW_HANDLE));
+
+	// Private Data Members
+	private String currentWindowHandle = INITIAL_WINDOW_HANDLE;
+	private boolean quit;
+	private int windowCount = 1;
 
 	public WebDriverMockImpl(WebElement... webElementsArray) {
 
@@ -51,7 +63,9 @@ public class WebDriverMockImpl implements WebDriver {
 
 	@Override
 	public void close() {
-		throw new UnsupportedOperationException();
+
+		windowHandles.remove(currentWindowHandle);
+		currentWindowHandle = null;
 	}
 
 	@Override
@@ -108,12 +122,24 @@ public class WebDriverMockImpl implements WebDriver {
 
 	@Override
 	public String getWindowHandle() {
-		throw new UnsupportedOperationException();
+
+		if (currentWindowHandle == null) {
+			throw new NoSuchWindowException("The current window has been closed.");
+		}
+
+		return currentWindowHandle;
 	}
 
 	@Override
 	public Set<String> getWindowHandles() {
-		throw new UnsupportedOperationException();
+		return Collections.unmodifiableSet(new LinkedHashSet<String>(windowHandles));
+	}
+
+	/**
+	 * Returns true if {@link #quit()} has been called.
+	 */
+	public boolean isQuit() {
+		return quit;
 	}
 
 	@Override
@@ -126,13 +152,74 @@ public class WebDriverMockImpl implements WebDriver {
 		throw new UnsupportedOperationException();
 	}
 
+	/**
+	 * Opens a new window (without switching to it) and returns its handle.
+	 */
+	public String openWindow() {
+
+		String windowHandle = "window-" + windowCount++;
+		windowHandles.add(windowHandle);
+
+		return windowHandle;
+	}
+
 	@Override
 	public void quit() {
-		throw new UnsupportedOperationException();
+		quit = true;
 	}
 
 	@Override
 	public TargetLocator switchTo() {
-		throw new UnsupportedOperationException();
+		return new TargetLocatorMockImpl();
+	}
+
+	private final class TargetLocatorMockImpl implements TargetLocator {
+
+		@Override
+		public WebElement activeElement() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Alert alert() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public WebDriver defaultContent() {
+			return WebDriverMockImpl.this;
+		}
+
+		@Override
+		public WebDriver frame(int index) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public WebDriver frame(String nameOrId) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public WebDriver frame(WebElement frameElement) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public WebDriver parentFrame() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public WebDriver window(String nameOrHandle) {
+
+			if (!windowHandles.contains(nameOrHandle)) {
+				throw new NoSuchWindowException("No window with handle: " + nameOrHandle);
+			}
+
+			currentWindowHandle = nameOrHandle;
+
+			return WebDriverMockImpl.this;
+		}
 	}
 }
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.liferay.faces.test.selenium.WebDriverMockImpl;
+import com.liferay.faces.test.selenium.browser.internal.BrowserDriverImpl;
+
+
+/**
+ * @author  Kyle Stiemann
+ */
+public class BrowserDriverPoolTest {
+
+	private static BrowserDriver createBrowserDriver() {
+		return new BrowserDriverImpl(new WebDriverMockImpl(), true, false);
+	}
+
+	private static WebDriverMockImpl getWebDriverMockImpl(BrowserDriver browserDriver) {
+		return (WebDriverMockImpl) browserDriver.getWebDriver();
+	}
+
+	@Test
+	public void testBrowserDriverPoolBorrowAndReturn() {
+
+		BrowserDriverPool browserDriverPool = new BrowserDriverPool(2, BrowserDriverPoolTest::createBrowserDriver);
+		BrowserDriver browserDriver1 = browserDriverPool.borrowBrowserDriver();
+		BrowserDriver browserDriver2 = browserDriverPool.borrowBrowserDriver();
+		Assert.assertNotSame(browserDriver1, browserDriver2);
+		Assert.assertEquals(2, browserDriverPool.getActiveCount());
+		Assert.assertEquals(2, browserDriverPool.getCreationCount());
+		Assert.assertEquals(0, browserDriverPool.getIdleCount());
+
+		// Windows opened while the BrowserDriver was borrowed must be closed before it is reused.
+		String initialWindowId = browserDriver1.getCurrentWindowId();
+		browserDriver1.switchToWindow(getWebDriverMockImpl(browserDriver1).openWindow());
+		browserDriverPool.returnBrowserDriver(browserDriver1);
+		Assert.assertEquals(Collections.singleton(initialWindowId), browserDriver1.getWindowIds());
+		Assert.assertEquals(initialWindowId, browserDriver1.getCurrentWindowId());
+		Assert.assertFalse(getWebDriverMockImpl(browserDriver1).isQuit());
+		Assert.assertEquals(1, browserDriverPool.getActiveCount());
+		Assert.assertEquals(1, browserDriverPool.getIdleCount());
+
+		// Idle BrowserDrivers are reused rather than created.
+		Assert.assertSame(browserDriver1, browserDriverPool.borrowBrowserDriver());
+		Assert.assertEquals(2, browserDriverPool.getCreationCount());
+		Assert.assertEquals(3, browserDriverPool.getBorrowCount());
+		Assert.assertEquals(0, browserDriverPool.getIdleCount());
+
+		browserDriverPool.returnBrowserDriver(browserDriver1);
+		browserDriverPool.returnBrowserDriver(browserDriver2);
+		Assert.assertEquals(0, browserDriverPool.getActiveCount());
+		Assert.assertEquals(2, browserDriverPool.getIdleCount());
+
+		browserDriverPool.clear();
+		Assert.assertEquals(0, browserDriverPool.getIdleCount());
+		Assert.assertTrue(getWebDriverMockImpl(browserDriver1).isQuit());
+		Assert.assertTrue(getWebDriverMockImpl(browserDriver2).isQuit());
+	}
+
+	@Test
+	public void testBrowserDriverPoolInvalidatesBrowserDriverWhichCannotBeReset() {
+
+		BrowserDriverPool browserDriverPool = new BrowserDriverPool(1, BrowserDriverPoolTest::createBrowserDriver);
+		BrowserDriver browserDriver = browserDriverPool.borrowBrowserDriver();
+
+		// A BrowserDriver whose initial window has been closed cannot be reset, so it must be quit instead of reused.
+		String windowId = getWebDriverMockImpl(browserDriver).openWindow();
+		browserDriver.closeCurrentWindow();
+		browserDriver.switchToWindow(windowId);
+		browserDriverPool.returnBrowserDriver(browserDriver);
+		Assert.assertTrue(getWebDriverMockImpl(browserDriver).isQuit());
+		Assert.assertEquals(0, browserDriverPool.getActiveCount());
+		Assert.assertEquals(0, browserDriverPool.getIdleCount());
+
+		BrowserDriver newBrowserDriver = browserDriverPool.borrowBrowserDriver();
+		Assert.assertNotSame(browserDriver, newBrowserDriver);
+		Assert.assertEquals(2, browserDriverPool.getCreationCount());
+
+		browserDriverPool.invalidateBrowserDriver(newBrowserDriver);
+		Assert.assertTrue(getWebDriverMockImpl(newBrowserDriver).isQuit());
+		Assert.assertEquals(0, browserDriverPool.getActiveCount());
+		Assert.assertEquals(0, browserDriverPool.getIdleCount());
+	}
+
+	@Test
+	public void testBrowserDriverPoolWaitsForReturnedBrowserDriver() throws InterruptedException {
+
+		final BrowserDriverPool browserDriverPool = new BrowserDriverPool(1,
+				BrowserDriverPoolTest::createBrowserDriver);
+		BrowserDriver browserDriver = browserDriverPool.borrowBrowserDriver();
+		final AtomicReference<BrowserDriver> borrowedBrowserDriver = new AtomicReference<BrowserDriver>();
+		Thread thread = new Thread(() -> borrowedBrowserDriver.set(browserDriverPool.borrowBrowserDriver()));
+		thread.start();
+
+		// The pool is exhausted, so the other thread must wait until the BrowserDriver is returned.
+		Thread.sleep(200);
+		Assert.assertNull(borrowedBrowserDriver.get());
+
+		browserDriverPool.returnBrowserDriver(browserDriver);
+		thread.join(5000);
+		Assert.assertSame(browserDriver, borrowedBrowserDriver.get());
+		Assert.assertEquals(1, browserDriverPool.getCreationCount());
+		Assert.assertEquals(2, browserDriverPool.getBorrowCount());
+		Assert.assertTrue(browserDriverPool.toString(), browserDriverPool.getMaxBorrowWaitTimeMillis() >= 150);
+		Assert.assertTrue(browserDriverPool.toString(),
+			browserDriverPool.getTotalBorrowWaitTimeMillis() >= browserDriverPool.getMaxBorrowWaitTimeMillis());
+	}
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+
+/**
+ * @author  Kyle Stiemann
+ */
+public class BrowserStateHistoryTest {
+
+	// Private Constants
+	private static final String FAILURE_MESSAGE = "Expected failure.";
+
+	// Public Final Data Members
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private static String createMarkup(int length) {
+
+		char[] markup = new char[length];
+		Arrays.fill(markup, 'a');
+
+		return new String(markup);
+	}
+
+	/**
+	 * Runs the actions in a failing test with a browser state history and returns the lines of the history's <code>
+	 * actions.tsv</code> file.
+	 */
+	private static List<String> runFailingTest(String testName, Runnable actions, Path outputDirectory)
+		throws Throwable {
+
+		Description description = Description.createTestDescription(BrowserStateHistoryTest.class, testName);
+		Statement statement = new Statement() {
+
+				@Override
+				public void evaluate() {
+
+					Assert.assertTrue(BrowserStateHistory.isRecording());
+					Assert.assertTrue(BrowserStateHistory.isRecordingMarkup());
+					actions.run();
+					throw new AssertionError(FAILURE_MESSAGE);
+				}
+			};
+
+		try {
+
+			new BrowserStateHistory().apply(statement, description).evaluate();
+			Assert.fail("The test did not fail.");
+		}
+		catch (AssertionError e) {
+			Assert.assertEquals(FAILURE_MESSAGE, e.getMessage());
+		}
+
+		// The history is only kept while the test is running.
+		Assert.assertFalse(BrowserStateHistory.isRecording());
+		Assert.assertFalse(BrowserStateHistory.isRecordingMarkup());
+
+		Path historyDirectory = outputDirectory.resolve(testName + "_" + BrowserStateHistoryTest.class.getName() +
+				"_-history");
+
+		return Files.readAllLines(historyDirectory.resolve("actions.tsv"), StandardCharsets.UTF_8);
+	}
+
+	@Before
+	public void setUp() {
+
+		System.setProperty("integration.browser.state.history.markup", "true");
+		System.setProperty("integration.captured.browser.state.output.directory",
+			temporaryFolder.getRoot().getAbsolutePath());
+	}
+
+	@After
+	public void tearDown() {
+
+		System.clearProperty("integration.browser.state.history.markup");
+		System.clearProperty("integration.browser.state.history.max.memory");
+		System.clearProperty("integration.browser.state.history.size");
+		System.clearProperty("integration.captured.browser.state.output.directory");
+	}
+
+	@Test
+	public void testBrowserStateHistoryDiscardsOldestBrowserStates() throws Throwable {
+
+		System.setProperty("integration.browser.state.history.size", "3");
+
+		Path outputDirectory = temporaryFolder.getRoot().toPath();
+		List<String> actionLines = runFailingTest("testHistorySize", () -> {
+
+					for (int i = 1; i <= 5; i++) {
+						BrowserStateHistory.record("action" + i, "http://localhost/" + i, "<html>" + i + "</html>");
+					}
+				}, outputDirectory);
+
+		// Only the three most recent browser states are kept.
+		Assert.assertEquals(actionLines.toString(), 3, actionLines.size());
+
+		for (int i = 0; i < 3; i++) {
+
+			String[] values = actionLines.get(i).split("\t", -1);
+			Assert.assertEquals("action" + (i + 3), values[1]);
+			Assert.assertEquals("http://localhost/" + (i + 3), values[2]);
+			Assert.assertEquals(String.format("%03d", i) + "_action" + (i + 3) + ".html", values[3]);
+
+			Path markupPath = outputDirectory.resolve("testHistorySize_" + BrowserStateHistoryTest.class.getName() +
+					"_-history").resolve(values[3]);
+			Assert.assertEquals("<html>" + (i + 3) + "</html>",
+				new String(Files.readAllBytes(markupPath), StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	public void testBrowserStateHistoryLimitsMemory() throws Throwable {
+
+		System.setProperty("integration.browser.state.history.size", "10");
+		System.setProperty("integration.browser.state.history.max.memory", "1");
+
+		List<String> actionLines = runFailingTest("testHistoryMemory", () -> {
+
+					// Each of these states uses about 600KB, so the first one is discarded when the second one is
+					// added.
+					BrowserStateHistory.record("large1", "http://localhost/", createMarkup(300 * 1024));
+					BrowserStateHistory.record("large2", "http://localhost/", createMarkup(300 * 1024));
+					BrowserStateHistory.record("small", "http://localhost/", "<html></html>");
+
+					// A state which exceeds the limit on its own is kept without its markup.
+					BrowserStateHistory.record("huge", "http://localhost/", createMarkup(600 * 1024));
+				}, temporaryFolder.getRoot().toPath());
+
+		Assert.assertEquals(actionLines.toString(), 3, actionLines.size());
+		Assert.assertEquals("large2", actionLines.get(0).split("\t", -1)[1]);
+		Assert.assertEquals("small", actionLines.get(1).split("\t", -1)[1]);
+
+		String[] values = actionLines.get(2).split("\t", -1);
+		Assert.assertEquals("huge", values[1]);
+		Assert.assertEquals("", values[3]);
+	}
+}
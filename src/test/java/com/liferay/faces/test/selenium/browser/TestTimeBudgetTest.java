@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+
+/**
+ * @author  Kyle Stiemann
+ */
+public class TestTimeBudgetTest {
+
+	@Test
+	public void testTestTimeBudget() throws Throwable {
+
+		Description description = Description.createTestDescription(TestTimeBudgetTest.class, "testWithBudget");
+		Statement statement = new Statement() {
+
+				@Override
+				public void evaluate() {
+
+					long remainingTimeInMillis = TestTimeBudget.getRemainingTimeInMillis();
+					Assert.assertTrue(String.valueOf(remainingTimeInMillis),
+						(remainingTimeInMillis > 0) && (remainingTimeInMillis <= 1000));
+
+					// Waits for the same condition are summed and only the ten longest waits are listed.
+					TestTimeBudget.recordWait("condition 1", 100);
+					TestTimeBudget.recordWait("condition 2", 300);
+					TestTimeBudget.recordWait("condition 1", 250);
+
+					for (int i = 0; i < 10; i++) {
+						TestTimeBudget.recordWait("short condition " + i, 1);
+					}
+
+					String breakdown = TestTimeBudget.getBreakdown();
+					Assert.assertTrue(breakdown, breakdown.startsWith("The time budget of 1000ms for " + description));
+					Assert.assertTrue(breakdown, breakdown.contains("(660ms waiting and "));
+
+					String[] breakdownLines = breakdown.split("\n");
+					Assert.assertEquals(breakdown, 11, breakdownLines.length);
+					Assert.assertEquals("350ms waiting for condition 1", breakdownLines[1]);
+					Assert.assertEquals("300ms waiting for condition 2", breakdownLines[2]);
+				}
+			};
+
+		// The budget is inactive unless the system property is set.
+		TestTimeBudget testTimeBudget = new TestTimeBudget();
+		Assert.assertSame(statement, testTimeBudget.apply(statement, description));
+
+		System.setProperty("integration.test.time.budget", "1");
+
+		try {
+			testTimeBudget.apply(statement, description).evaluate();
+		}
+		finally {
+			System.clearProperty("integration.test.time.budget");
+		}
+
+		// The budget only applies while the test is running.
+		Assert.assertEquals(Long.MAX_VALUE, TestTimeBudget.getRemainingTimeInMillis());
+		Assert.assertNull(TestTimeBudget.getBreakdown());
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.support.ui.ExpectedCondition;
+
+import com.liferay.faces.test.selenium.WebDriverMockImpl;
+
+
+/**
+ * @author  Kyle Stiemann
+ */
+public class AdaptivePollingWaitTest {
+
+	@Test
+	public void testAdaptivePollingWait() {
+
+		WebDriver webDriver = new WebDriverMockImpl();
+		final List<Long> pollTimes = new ArrayList<Long>();
+		AdaptivePollingWait adaptivePollingWait = new AdaptivePollingWait(webDriver, 5000, 10, 2, 40);
+
+		Boolean value = adaptivePollingWait.until(new ExpectedCondition<Boolean>() {
+
+					@Override
+					public Boolean apply(WebDriver webDriver) {
+
+						pollTimes.add(System.nanoTime() / 1000000);
+
+						if (pollTimes.size() == 2) {
+							throw new NoSuchElementException("Element not found yet.");
+						}
+
+						return pollTimes.size() == 6;
+					}
+				});
+
+		Assert.assertTrue(value);
+		Assert.assertEquals(6, pollTimes.size());
+
+		// The intervals should back off exponentially from 10ms to the 40ms maximum.
+		long[] minimumIntervals = new long[] { 10, 20, 40, 40, 40 };
+
+		for (int i = 1; i < pollTimes.size(); i++) {
+
+			long interval = pollTimes.get(i) - pollTimes.get(i - 1);
+			Assert.assertTrue("Interval " + i + " was " + interval + "ms.", interval >= (minimumIntervals[i - 1] - 1));
+		}
+
+		adaptivePollingWait = new AdaptivePollingWait(webDriver, 100, 10, 2, 500);
+
+		try {
+
+			adaptivePollingWait.until(new ExpectedCondition<Boolean>() {
+
+					@Override
+					public Boolean apply(WebDriver webDriver) {
+						return false;
+					}
+
+					@Override
+					public String toString() {
+						return "never";
+					}
+				});
+
+			Assert.fail("TimeoutException was not thrown.");
+		}
+		catch (TimeoutException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains("waiting for never"));
+		}
+	}
+}
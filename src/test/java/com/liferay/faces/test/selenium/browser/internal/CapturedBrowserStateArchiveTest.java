@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.liferay.faces.test.selenium.util.ClosableUtil;
+
+
+/**
+ * @author  Kyle Stiemann
+ */
+public class CapturedBrowserStateArchiveTest {
+
+	// Public Final Data Members
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private static String readEntry(ZipFile zipFile, String entryName) throws IOException {
+
+		ZipEntry zipEntry = zipFile.getEntry(entryName);
+		Assert.assertNotNull("Missing zip entry " + entryName, zipEntry);
+
+		InputStream inputStream = null;
+
+		try {
+
+			inputStream = zipFile.getInputStream(zipEntry);
+
+			return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		finally {
+			ClosableUtil.close(inputStream);
+		}
+	}
+
+	@Test
+	public void testCapturedBrowserStateArchiveIndex() throws IOException {
+
+		Path directory = temporaryFolder.getRoot().toPath();
+		CapturedBrowserStateArchive capturedBrowserStateArchive = CapturedBrowserStateArchive.getInstance(directory);
+		String fileName = directory.resolve("capture").toString();
+		Path segmentPath = capturedBrowserStateArchive.write(new CapturedBrowserState(0, fileName,
+					"http://localhost/1", "<html>1</html>", null, null), false);
+
+		// Captures with the same name must not overwrite or hide each other.
+		Assert.assertEquals(segmentPath,
+			capturedBrowserStateArchive.write(new CapturedBrowserState(1000, fileName, "http://localhost/2",
+					"<html>2</html>", null, null), false));
+
+		// The index must only refer to closed segments.
+		Path indexPath = directory.resolve("index.tsv");
+		Assert.assertFalse(Files.exists(indexPath));
+		Assert.assertFalse(Files.exists(segmentPath));
+
+		capturedBrowserStateArchive.close();
+		Assert.assertTrue(Files.exists(segmentPath));
+
+		List<String> indexLines = Files.readAllLines(indexPath, StandardCharsets.UTF_8);
+		Assert.assertEquals(indexLines.toString(), 3, indexLines.size());
+		Assert.assertEquals("time\tname\turl\tsegment\tentries", indexLines.get(0));
+
+		String segmentFileName = segmentPath.getFileName().toString();
+		Assert.assertEquals("1970-01-01T00:00:00Z\tcapture\thttp://localhost/1\t" + segmentFileName +
+			"\tcapture.html", indexLines.get(1));
+		Assert.assertEquals("1970-01-01T00:00:01Z\tcapture\thttp://localhost/2\t" + segmentFileName +
+			"\tcapture-1.html", indexLines.get(2));
+
+		ZipFile zipFile = new ZipFile(segmentPath.toFile());
+
+		try {
+
+			Assert.assertEquals("<html>1</html>", readEntry(zipFile, "capture.html"));
+			Assert.assertEquals("<html>2</html>", readEntry(zipFile, "capture-1.html"));
+		}
+		finally {
+			zipFile.close();
+		}
+	}
+
+	@Test
+	public void testCapturedBrowserStateArchiveRetention() throws IOException {
+
+		Path directory = temporaryFolder.getRoot().toPath();
+		Path expiredSegmentPath = directory.resolve("captured-browser-state-20000101-000000-000-1-1.zip");
+		Files.write(expiredSegmentPath, new byte[] { 0 });
+		Files.setLastModifiedTime(expiredSegmentPath,
+			FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30)));
+
+		Path indexPath = directory.resolve("index.tsv");
+		Files.write(indexPath,
+			("time\tname\turl\tsegment\tentries\n2000-01-01T00:00:00Z\texpired\thttp://localhost/expired\t" +
+				expiredSegmentPath.getFileName() + "\texpired.html\n").getBytes(StandardCharsets.UTF_8));
+
+		CapturedBrowserStateArchive capturedBrowserStateArchive = CapturedBrowserStateArchive.getInstance(directory);
+		Path segmentPath = capturedBrowserStateArchive.write(new CapturedBrowserState(0,
+					directory.resolve("capture").toString(), "http://localhost/", "<html></html>", null, null), true);
+		capturedBrowserStateArchive.close();
+
+		// Segments older than the maximum age (a week by default) are deleted along with their index lines.
+		Assert.assertFalse(Files.exists(expiredSegmentPath));
+		Assert.assertTrue(Files.exists(segmentPath));
+
+		List<String> indexLines = Files.readAllLines(indexPath, StandardCharsets.UTF_8);
+		Assert.assertEquals(indexLines.toString(), 2, indexLines.size());
+		Assert.assertTrue(indexLines.get(1), indexLines.get(1).contains("\t" + segmentPath.getFileName() + "\t"));
+	}
+}
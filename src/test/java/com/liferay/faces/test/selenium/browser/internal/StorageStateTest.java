@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser.internal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.openqa.selenium.Cookie;
+
+
+/**
+ * @author  Kyle Stiemann
+ */
+public class StorageStateTest {
+
+	// Public Final Data Members
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testStorageStateRoundTrip() throws IOException {
+
+		Set<Cookie> cookies = new HashSet<Cookie>();
+		cookies.add(new Cookie.Builder("JSESSIONID", "ABC=123").path("/").isHttpOnly(true).build());
+		cookies.add(new Cookie.Builder("COOKIE_SUPPORT", "true").domain("localhost").path("/web").expiresOn(
+				new Date(4102444800000L)).isSecure(true).build());
+
+		StorageState storageState = new StorageState("http://localhost:8080", cookies,
+				Collections.singletonMap("key=1", "value\n1"), Collections.singletonMap("key2", "value2"));
+		Path path = temporaryFolder.getRoot().toPath().resolve("storage-state").resolve("test.storage-state");
+		storageState.write(path);
+
+		// The file must be plain text rather than a serialized object.
+		String content = new String(Files.readAllBytes(path), StandardCharsets.ISO_8859_1);
+		Assert.assertTrue(content, content.contains("origin=http\\://localhost\\:8080"));
+
+		StorageState readStorageState = StorageState.read(path);
+		Assert.assertEquals(storageState.getOrigin(), readStorageState.getOrigin());
+		Assert.assertEquals(storageState.getCookies(), readStorageState.getCookies());
+		Assert.assertEquals(storageState.getLocalStorage(), readStorageState.getLocalStorage());
+		Assert.assertEquals(storageState.getSessionStorage(), readStorageState.getSessionStorage());
+
+		for (Cookie cookie : readStorageState.getCookies()) {
+
+			if ("COOKIE_SUPPORT".equals(cookie.getName())) {
+
+				Assert.assertEquals("localhost", cookie.getDomain());
+				Assert.assertEquals(4102444800000L, cookie.getExpiry().getTime());
+				Assert.assertTrue(cookie.isSecure());
+			}
+			else {
+				Assert.assertTrue(cookie.isHttpOnly());
+			}
+		}
+
+		if (Files.getFileAttributeView(path, PosixFileAttributeView.class) != null) {
+
+			Assert.assertEquals("rwx------",
+				PosixFilePermissions.toString(Files.getPosixFilePermissions(path.getParent())));
+			Assert.assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(path)));
+
+			// Files which other users could have written must be rejected.
+			Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-rw-rw-"));
+
+			try {
+
+				StorageState.read(path);
+				Assert.fail("IOException was not thrown for a storage state file which is accessible by other users.");
+			}
+			catch (IOException e) {
+				// Expected.
+			}
+		}
+	}
+}
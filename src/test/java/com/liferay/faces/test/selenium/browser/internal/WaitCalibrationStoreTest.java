@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.browser.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.liferay.faces.test.selenium.util.ClosableUtil;
+
+
+/**
+ * @author  Kyle Stiemann
+ */
+public class WaitCalibrationStoreTest {
+
+	// Private Constants
+	private static final String CONDITION_KEY = "visibility of element located by By.xpath: //div";
+	private static final long CONFIGURED_TIME_OUT_IN_MILLIS = 60000;
+
+	// Public Final Data Members
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testWaitCalibrationStoreMergesSamplesOnSave() throws IOException {
+
+		Path path = temporaryFolder.getRoot().toPath().resolve("wait-calibration.properties");
+
+		// Both stores read the file before either of them saves, like concurrent surefire forks.
+		WaitCalibrationStore waitCalibrationStore1 = new WaitCalibrationStore(path);
+		WaitCalibrationStore waitCalibrationStore2 = new WaitCalibrationStore(path);
+
+		for (int i = 0; i < 5; i++) {
+
+			waitCalibrationStore1.recordWait(CONDITION_KEY, 100);
+			waitCalibrationStore2.recordWait(CONDITION_KEY, 200);
+		}
+
+		waitCalibrationStore1.save();
+		waitCalibrationStore2.save();
+
+		// Saving again must not record the same samples twice.
+		waitCalibrationStore1.save();
+
+		Properties properties = new Properties();
+		InputStream inputStream = null;
+
+		try {
+
+			inputStream = Files.newInputStream(path);
+			properties.load(inputStream);
+		}
+		finally {
+			ClosableUtil.close(inputStream);
+		}
+
+		Assert.assertEquals("100,100,100,100,100,200,200,200,200,200", properties.getProperty(CONDITION_KEY));
+
+		WaitCalibrationStore waitCalibrationStore = new WaitCalibrationStore(path);
+		Assert.assertEquals(1200,
+			waitCalibrationStore.getTimeOutInMillis(CONDITION_KEY, CONFIGURED_TIME_OUT_IN_MILLIS));
+	}
+
+	@Test
+	public void testWaitCalibrationStoreTimeOut() {
+
+		WaitCalibrationStore waitCalibrationStore = new WaitCalibrationStore(temporaryFolder.getRoot().toPath()
+				.resolve("wait-calibration.properties"));
+		String uncalibratableConditionKey = "java.lang.Object@1b6d3586";
+		String uncalibratableLambdaConditionKey = "com.liferay.faces.test.Test$$Lambda$14/0x0000000800c03000@6d06d69c";
+
+		for (int i = 1; i < 10; i++) {
+
+			waitCalibrationStore.recordWait(CONDITION_KEY, i * 100L);
+			waitCalibrationStore.recordWait(uncalibratableConditionKey, i * 100L);
+			waitCalibrationStore.recordWait(uncalibratableLambdaConditionKey, i * 100L);
+		}
+
+		// The configured time out is used until at least 10 samples have been recorded.
+		Assert.assertEquals(CONFIGURED_TIME_OUT_IN_MILLIS,
+			waitCalibrationStore.getTimeOutInMillis(CONDITION_KEY, CONFIGURED_TIME_OUT_IN_MILLIS));
+
+		waitCalibrationStore.recordWait(CONDITION_KEY, 1000);
+		waitCalibrationStore.recordWait(uncalibratableConditionKey, 1000);
+		waitCalibrationStore.recordWait(uncalibratableLambdaConditionKey, 1000);
+
+		// The 95th percentile of 100, 200, ... 1000 is 1000, plus the default margin of 1000.
+		Assert.assertEquals(2000,
+			waitCalibrationStore.getTimeOutInMillis(CONDITION_KEY, CONFIGURED_TIME_OUT_IN_MILLIS));
+
+		// The calibrated time out never exceeds the configured time out.
+		Assert.assertEquals(1500, waitCalibrationStore.getTimeOutInMillis(CONDITION_KEY, 1500));
+
+		// Durations of conditions without a meaningful toString() are not recorded.
+		Assert.assertEquals(CONFIGURED_TIME_OUT_IN_MILLIS,
+			waitCalibrationStore.getTimeOutInMillis(uncalibratableConditionKey, CONFIGURED_TIME_OUT_IN_MILLIS));
+		Assert.assertEquals(CONFIGURED_TIME_OUT_IN_MILLIS,
+			waitCalibrationStore.getTimeOutInMillis(uncalibratableLambdaConditionKey, CONFIGURED_TIME_OUT_IN_MILLIS));
+	}
+
+	@Test
+	public void testWaitCalibrationStoreTrimsOldSamples() {
+
+		WaitCalibrationStore waitCalibrationStore = new WaitCalibrationStore(temporaryFolder.getRoot().toPath()
+				.resolve("wait-calibration.properties"));
+
+		// Only the 50 most recent samples are kept, so the slow samples are discarded.
+		for (int i = 0; i < 50; i++) {
+			waitCalibrationStore.recordWait(CONDITION_KEY, 5000);
+		}
+
+		for (int i = 0; i < 50; i++) {
+			waitCalibrationStore.recordWait(CONDITION_KEY, 10);
+		}
+
+		Assert.assertEquals(1010,
+			waitCalibrationStore.getTimeOutInMillis(CONDITION_KEY, CONFIGURED_TIME_OUT_IN_MILLIS));
+	}
+}
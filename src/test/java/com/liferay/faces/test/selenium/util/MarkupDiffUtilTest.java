@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2000-2021 Liferay, Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.liferay.faces.test.selenium.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+
+/**
+ * @author  Kyle Stiemann
+ */
+public class MarkupDiffUtilTest {
+
+	// Public Final Data Members
+	@Rule
+	public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private static void assertRoundTrip(String baseMarkup, String markup) {
+
+		String diff = MarkupDiffUtil.createDiff("base.html", baseMarkup, markup);
+		Assert.assertTrue(MarkupDiffUtil.isDiff(diff));
+		Assert.assertEquals("base.html", MarkupDiffUtil.getBaseName(diff));
+		Assert.assertEquals(markup, MarkupDiffUtil.applyDiff(baseMarkup, diff));
+	}
+
+	private static void write(Path path, String content) throws IOException {
+		Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testMarkupDiffRoundTrip() throws IOException {
+
+		String baseMarkup = "<html><head><title>Test</title></head><body>\n<form id=\"form\">" +
+			"<ul><li>1</li><li>2</li><li>3</li></ul><span id=\"message\">Value:</span>" +
+			"<input id=\"input\" value=\"\"/></form>\n</body></html>";
+		String markup = baseMarkup.replace("<li>2</li>", "<li>two</li><li>2.5</li>").replace("Value:",
+				"Value: 😀\n+1\n=2");
+
+		assertRoundTrip(baseMarkup, baseMarkup);
+		assertRoundTrip(baseMarkup, markup);
+		assertRoundTrip(markup, baseMarkup);
+		assertRoundTrip("", baseMarkup);
+		assertRoundTrip(baseMarkup, "");
+		assertRoundTrip(baseMarkup, "<p>Completely different</p>");
+		assertRoundTrip("<li>1</li><li>1</li><li>1</li>", "<li>1</li><li>2</li><li>1</li><li>1</li>");
+
+		// A change in one element of a large document should only store that element.
+		StringBuilder buf = new StringBuilder("<html><body><table>");
+
+		for (int i = 0; i < 1000; i++) {
+			buf.append("<tr><td>Row ").append(i).append("</td></tr>\n");
+		}
+
+		buf.append("</table></body></html>");
+
+		String largeMarkup = buf.toString();
+		String changedLargeMarkup = largeMarkup.replace("Row 500", "Changed row 500");
+		String diff = MarkupDiffUtil.createDiff("base.html", largeMarkup, changedLargeMarkup);
+		Assert.assertTrue(diff, diff.length() < 200);
+		Assert.assertEquals(changedLargeMarkup, MarkupDiffUtil.applyDiff(largeMarkup, diff));
+
+		diff = MarkupDiffUtil.createDiff("base.html", baseMarkup, markup);
+
+		try {
+
+			MarkupDiffUtil.applyDiff("<html></html>", diff);
+			Assert.fail("IllegalArgumentException was not thrown for the wrong base markup.");
+		}
+		catch (IllegalArgumentException e) {
+			// Expected.
+		}
+
+		// Reconstruct the last capture of a chain of diffs.
+		Path directory = temporaryFolder.getRoot().toPath();
+		String thirdMarkup = markup.replace("value=\"\"", "value=\"3\"");
+		write(directory.resolve("1.html"), baseMarkup);
+		write(directory.resolve("2.html.diff"), MarkupDiffUtil.createDiff("1.html", baseMarkup, markup));
+		write(directory.resolve("3.html.diff"), MarkupDiffUtil.createDiff("2.html.diff", markup, thirdMarkup));
+		Assert.assertEquals(baseMarkup, CapturedMarkupReconstructor.reconstruct(directory.resolve("1.html")));
+		Assert.assertEquals(markup, CapturedMarkupReconstructor.reconstruct(directory.resolve("2.html.diff")));
+		Assert.assertEquals(thirdMarkup, CapturedMarkupReconstructor.reconstruct(directory.resolve("3.html.diff")));
+	}
+}